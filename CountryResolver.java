@@ -0,0 +1,67 @@
+package net.intermedia.uav.postal;
+
+import net.intermedia.uav.country.Country;
+import net.intermedia.uav.country.CountryState;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memoizing front of {@link Country#find(String)} and {@link CountryState#find(Country, String)}. Countries and
+ * states are resolved once per distinct spelling, repeated lookups are a hash map read without allocation.
+ * <p>
+ * Values are taken from requests, so each table stops growing at {@value #MAX_ENTRIES} spellings: lookups of
+ * further spellings are still correct, they are just not remembered.
+ */
+public final class CountryResolver {
+
+    static final int MAX_ENTRIES = 4096;
+
+    private static final Map<String, Country> COUNTRIES = new ConcurrentHashMap<>();
+
+    private static final Map<Country, Map<String, CountryState>> STATES = new EnumMap<>(Country.class);
+
+    static {
+        for (Country country : Country.values()) {
+            STATES.put(country, new ConcurrentHashMap<>());
+        }
+    }
+
+    private CountryResolver() {
+    }
+
+    public static Country findCountry(String country) {
+        if (country == null) {
+            return Country.find(null);
+        }
+        Country found = COUNTRIES.get(country);
+        if (found == null) {
+            found = Country.find(country);
+            if (found != null && COUNTRIES.size() < MAX_ENTRIES) {
+                COUNTRIES.put(country, found);
+            }
+        }
+        return found;
+    }
+
+    public static CountryState findState(Country country, String state) {
+        Map<String, CountryState> states = country != null ? STATES.get(country) : null;
+        if (states == null || state == null) {
+            return CountryState.find(country, state);
+        }
+        CountryState found = states.get(state);
+        if (found == null) {
+            found = CountryState.find(country, state);
+            if (found != null && states.size() < MAX_ENTRIES) {
+                states.put(state, found);
+            }
+        }
+        return found;
+    }
+
+    public static CountryState findState(String country, String state) {
+        Country found = findCountry(country);
+        return found != null ? findState(found, state) : CountryState.find(country, state);
+    }
+}
@@ -0,0 +1,122 @@
+package net.intermedia.uav.postal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+
+/**
+ * Position of a custom address search, handed out to clients as an opaque continuation token. A search answered by
+ * the custom address index goes in UID order, so its cursor keeps the UID of the last returned address and the next
+ * page starts right after it, whatever was added or deleted meanwhile. A search answered by the cache keeps the number
+ * and size of the next page, the whole search stays on the cache even if the index is built in between.
+ */
+final class CustomAddressCursor {
+
+    private static final int VERSION = 3;
+    // tokens handed out before the cache could answer searches by cursor, they hold a UID only
+    private static final int UID_ONLY_VERSION = 2;
+    private static final int INDEX = 0;
+    private static final int CACHE = 1;
+    private static final CustomAddressCursor FIRST = new CustomAddressCursor(INDEX, null, 0, 0);
+
+    private final int source;
+    private final String lastUid;
+    private final int pageNumber;
+    private final int pageSize;
+
+    private CustomAddressCursor(int source, String lastUid, int pageNumber, int pageSize) {
+        this.source = source;
+        this.lastUid = lastUid;
+        this.pageNumber = pageNumber;
+        this.pageSize = pageSize;
+    }
+
+    static CustomAddressCursor first() {
+        return FIRST;
+    }
+
+    static CustomAddressCursor afterUid(String lastUid) {
+        return new CustomAddressCursor(INDEX, lastUid, 0, 0);
+    }
+
+    /**
+     * @param pageNumber zero based number of the next page of the cache
+     */
+    static CustomAddressCursor cachePage(int pageNumber, int pageSize) {
+        return new CustomAddressCursor(CACHE, null, pageNumber, pageSize);
+    }
+
+    /**
+     * @param token token returned by {@link #encode()}, the search starts from the beginning if it is empty
+     */
+    static CustomAddressCursor decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return FIRST;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)))) {
+            int version = in.readUnsignedByte();
+            if (version == UID_ONLY_VERSION) {
+                String lastUid = in.readUTF();
+                return lastUid.isEmpty() ? FIRST : new CustomAddressCursor(INDEX, lastUid, 0, 0);
+            }
+            if (version != VERSION) {
+                throw new IllegalStateException("Unsupported cursor: " + token);
+            }
+            int source = in.readUnsignedByte();
+            if (source == INDEX) {
+                String lastUid = in.readUTF();
+                return lastUid.isEmpty() ? FIRST : new CustomAddressCursor(INDEX, lastUid, 0, 0);
+            }
+            if (source == CACHE) {
+                return new CustomAddressCursor(CACHE, null, in.readInt(), in.readInt());
+            }
+            throw new IllegalStateException("Unsupported cursor: " + token);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalStateException("Invalid cursor: " + token);
+        }
+    }
+
+    String encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeByte(source);
+            if (source == INDEX) {
+                out.writeUTF(lastUid != null ? lastUid : "");
+            } else {
+                out.writeInt(pageNumber);
+                out.writeInt(pageSize);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    boolean isFirst() {
+        return source == INDEX && lastUid == null;
+    }
+
+    /**
+     * Whether the search is answered by the cache rather than by the index.
+     */
+    boolean isCachePage() {
+        return source == CACHE;
+    }
+
+    String getLastUid() {
+        return lastUid;
+    }
+
+    int getPageNumber() {
+        return pageNumber;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+}
@@ -0,0 +1,25 @@
+package net.intermedia.uav.postal;
+
+import lombok.Getter;
+import lombok.ToString;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+
+import java.util.List;
+
+/**
+ * Page of a custom address search by cursor. <code>nextCursor</code> continues the search, it is <code>null</code>
+ * on the last page.
+ */
+@Getter
+@ToString
+public class CustomAddressCursorPage {
+
+    private final List<UavPostalCachedObject> result;
+
+    private final String nextCursor;
+
+    public CustomAddressCursorPage(List<UavPostalCachedObject> result, String nextCursor) {
+        this.result = result;
+        this.nextCursor = nextCursor;
+    }
+}
@@ -0,0 +1,124 @@
+package net.intermedia.uav.postal;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import net.intermedia.uav.pojo.ValidationError;
+import net.intermedia.uav.pojo.postal.PostalRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static net.intermedia.uav.pojo.ErrorCode.EX06;
+
+/**
+ * Short-lived cache of mail validations that ended with a fatal error. Such results are not stored in the main cache,
+ * so without it every retry of a malformed address from a misbehaving client would go to the mail provider again.
+ * <p>
+ * Results are keyed on the normalized address. Provider-side failures (EX06) have their own, usually shorter, TTL:
+ * the address may be fine once the provider is back.
+ */
+@Log4j2
+@Component
+public class FatalResultCache {
+
+    @Value("${uav.postal.fatal-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${uav.postal.fatal-cache.max-size:10000}")
+    private int maxSize;
+
+    @Value("${uav.postal.fatal-cache.ttl-ms:300000}")
+    private long ttlMs;
+
+    @Value("${uav.postal.fatal-cache.provider-error-ttl-ms:30000}")
+    private long providerErrorTtlMs;
+
+    @Autowired
+    private UavPostalCachedObjectSerializer serializer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private MetricClientTags metricClientTags;
+
+    private final Map<PostalRequestKey, Entry> entries = new LinkedHashMap<PostalRequestKey, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PostalRequestKey, Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("uav.postal.fatal.cache.size", this, FatalResultCache::size).register(meterRegistry);
+    }
+
+    /**
+     * @return a copy of the fatal result of the address, or null if there is none
+     */
+    public UavPostalValidationResult get(PostalRequest postalRequest, String clientName) {
+        if (!enabled) {
+            return null;
+        }
+        PostalRequestKey key = PostalRequestKey.of(postalRequest).normalized();
+        byte[] snapshot;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtNanos - System.nanoTime() < 0) {
+                entries.remove(key);
+                return null;
+            }
+            snapshot = entry.snapshot;
+        }
+        meterRegistry.counter("uav.postal.fatal.cache.hits", "client", metricClientTags.tag(clientName)).increment();
+        return serializer.deserializeResult(snapshot);
+    }
+
+    public void put(PostalRequest postalRequest, UavPostalValidationResult fatalResult) {
+        if (!enabled) {
+            return;
+        }
+        boolean providerError = fatalResult.getPostalRC().getErrors().stream()
+                .map(ValidationError::getErrorCode)
+                .anyMatch(e -> e == EX06);
+        long expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(providerError ? providerErrorTtlMs : ttlMs);
+        byte[] snapshot = serializer.serializeResult(fatalResult);
+        synchronized (this) {
+            entries.put(PostalRequestKey.of(postalRequest).normalized(), new Entry(snapshot, expiresAtNanos));
+        }
+    }
+
+    /**
+     * Removes all the results, e.g. after a fix on provider side.
+     */
+    public synchronized int purge() {
+        int purged = entries.size();
+        entries.clear();
+        log.info("Fatal result cache is purged, " + purged + " entries removed");
+        return purged;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final byte[] snapshot;
+        private final long expiresAtNanos;
+
+        Entry(byte[] snapshot, long expiresAtNanos) {
+            this.snapshot = snapshot;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.intermedia.uav.postal;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Timeouts for CompletableFuture without blocking a thread per waiting future. The single timer thread never
+ * completes a future itself: a timed out future is completed by an executor, which also runs the stages depending on it.
+ */
+final class FutureTimeouts {
+
+    private static final ScheduledExecutorService TIMER;
+
+    static {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("uav-timeout-");
+        threadFactory.setDaemon(true);
+        TIMER = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    private FutureTimeouts() {
+    }
+
+    /**
+     * Completes <code>future</code> with a value of <code>fallback</code> if it is not completed within <code>timeout</code>.
+     * The fallback is only evaluated on timeout, by <code>executor</code>.
+     */
+    static <T> CompletableFuture<T> completeOnTimeout(CompletableFuture<T> future, Supplier<T> fallback, long timeout, TimeUnit unit,
+                                                      Executor executor) {
+        if (!future.isDone()) {
+            ScheduledFuture<?> timer = TIMER.schedule(() -> {
+                if (!future.isDone()) {
+                    executor.execute(() -> complete(future, fallback));
+                }
+            }, timeout, unit);
+            future.whenComplete((result, e) -> timer.cancel(false));
+        }
+        return future;
+    }
+
+    private static <T> void complete(CompletableFuture<T> future, Supplier<T> fallback) {
+        if (future.isDone()) {
+            return;
+        }
+        try {
+            future.complete(fallback.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
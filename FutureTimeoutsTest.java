@@ -0,0 +1,94 @@
+package net.intermedia.uav.postal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FutureTimeoutsTest {
+
+    @Test
+    void timedOutFutureIsCompletedWithFallback() {
+        CompletableFuture<String> future = FutureTimeouts.completeOnTimeout(new CompletableFuture<>(), () -> "fallback",
+                20, TimeUnit.MILLISECONDS, Runnable::run);
+
+        assertEquals("fallback", future.join());
+    }
+
+    @Test
+    void resultInTimeIsKept() throws InterruptedException {
+        AtomicInteger fallbacks = new AtomicInteger();
+        CompletableFuture<String> future = FutureTimeouts.completeOnTimeout(new CompletableFuture<>(), () -> {
+            fallbacks.incrementAndGet();
+            return "fallback";
+        }, 50, TimeUnit.MILLISECONDS, Runnable::run);
+
+        future.complete("result");
+        Thread.sleep(150);
+        assertEquals("result", future.join());
+        assertEquals(0, fallbacks.get());
+    }
+
+    @Test
+    void resultAfterTimeoutIsDropped() {
+        CompletableFuture<String> future = FutureTimeouts.completeOnTimeout(new CompletableFuture<>(), () -> "fallback",
+                20, TimeUnit.MILLISECONDS, Runnable::run);
+
+        assertEquals("fallback", future.join());
+        assertFalse(future.complete("late result"));
+        assertEquals("fallback", future.join());
+    }
+
+    @Test
+    void failingFallbackCompletesExceptionally() {
+        IllegalStateException failure = new IllegalStateException("fallback failed");
+        CompletableFuture<String> future = FutureTimeouts.completeOnTimeout(new CompletableFuture<>(), () -> {
+            throw failure;
+        }, 20, TimeUnit.MILLISECONDS, Runnable::run);
+
+        CompletionException e = assertThrows(CompletionException.class, future::join);
+        assertSame(failure, e.getCause());
+    }
+
+    @Test
+    void dependentStagesRunInExecutor() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "completion"));
+        try {
+            CountDownLatch completed = new CountDownLatch(1);
+            String[] thread = new String[1];
+            FutureTimeouts.completeOnTimeout(new CompletableFuture<String>(), () -> "fallback", 20, TimeUnit.MILLISECONDS, executor)
+                    .thenRun(() -> {
+                        thread[0] = Thread.currentThread().getName();
+                        completed.countDown();
+                    });
+
+            assertTrue(completed.await(5, TimeUnit.SECONDS));
+            assertEquals("completion", thread[0]);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void completedFutureIsReturnedAsIs() {
+        Executor failingExecutor = command -> {
+            throw new AssertionError("nothing to complete");
+        };
+        CompletableFuture<String> completed = CompletableFuture.completedFuture("result");
+
+        assertSame(completed, FutureTimeouts.completeOnTimeout(completed, () -> "fallback", 1, TimeUnit.MILLISECONDS, failingExecutor));
+        assertEquals("result", completed.join());
+    }
+}
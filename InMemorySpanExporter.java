@@ -0,0 +1,48 @@
+package net.intermedia.uav.postal;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the last <code>uav.postal.tracing.in-memory.capacity</code> spans, for tests and for looking at traces of
+ * a running instance. Registered with <code>uav.postal.tracing.exporter=in-memory</code>.
+ */
+@Component
+@ConditionalOnProperty(name = "uav.postal.tracing.exporter", havingValue = "in-memory")
+public class InMemorySpanExporter implements SpanExporter {
+
+    private final int capacity;
+
+    private final Deque<Span> spans = new ArrayDeque<>();
+
+    public InMemorySpanExporter(@Value("${uav.postal.tracing.in-memory.capacity:10000}") int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized void export(Span span) {
+        if (spans.size() >= capacity) {
+            spans.pollFirst();
+        }
+        spans.addLast(span);
+    }
+
+    public synchronized List<Span> getSpans() {
+        return new ArrayList<>(spans);
+    }
+
+    public synchronized List<Span> getSpans(String traceId) {
+        return spans.stream().filter(span -> span.getTraceId().equals(traceId)).collect(Collectors.toList());
+    }
+
+    public synchronized void clear() {
+        spans.clear();
+    }
+}
@@ -0,0 +1,15 @@
+package net.intermedia.uav.postal;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * A batch of addresses cannot be validated as a whole, e.g. it is larger than allowed.
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidBatchException extends RuntimeException {
+
+    public InvalidBatchException(String message) {
+        super(message);
+    }
+}
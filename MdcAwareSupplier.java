@@ -0,0 +1,74 @@
+package net.intermedia.uav.postal;
+
+import net.intermedia.uav.common.utils.log.LoggingUtils;
+import net.intermedia.uav.context.ValidationContext;
+import net.intermedia.uav.context.ValidationContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * This wrapper wraps Supplier with setting/clearing MDC for logging, so that a task executed in a pool thread
+ * logs with the identifiers of the request it was created for. The validation context and, if given, the security
+ * context of the request are bound to the thread for the time of the task as well.
+ */
+class MdcAwareSupplier<T> implements Supplier<T> {
+
+    private final Supplier<T> underlying;
+    private final ValidationContext context;
+    private final SecurityContext securityContext;
+    private final UUID requestId;
+    private final String clientRequestID;
+    private final String clientName;
+    private final String clientInstance;
+
+    MdcAwareSupplier(Supplier<T> underlying, ValidationContext context) {
+        this(underlying, context, null);
+    }
+
+    MdcAwareSupplier(Supplier<T> underlying, ValidationContext context, SecurityContext securityContext) {
+        this.underlying = underlying;
+        this.context = context;
+        this.securityContext = securityContext;
+        this.requestId = context != null ? context.getRequestId() : null;
+        this.clientRequestID = context != null ? context.getClientRequestID() : null;
+        this.clientName = context != null ? context.getClientName() : null;
+        this.clientInstance = context != null ? context.getClientInstance() : null;
+    }
+
+    @Override
+    public T get() {
+        ValidationContext previousContext = ValidationContextHolder.get();
+        SecurityContext previousSecurityContext = SecurityContextHolder.getContext();
+        try {
+            if (requestId != null) {
+                LoggingUtils.putToMdc(LoggingUtils.REQUEST_ID_KEY, requestId.toString());
+            }
+            LoggingUtils.putToMdc(LoggingUtils.CLIENT_REQUEST_ID, clientRequestID);
+            LoggingUtils.putToMdc(LoggingUtils.CLIENT_NAME, clientName);
+            LoggingUtils.putToMdc(LoggingUtils.CLIENT_INSTANCE, clientInstance);
+            if (context != null) {
+                ValidationContextHolder.set(context);
+            }
+            if (securityContext != null) {
+                SecurityContextHolder.setContext(securityContext);
+            }
+            return underlying.get();
+        } finally {
+            // Tear down MDC and restore the contexts, because the thread could be reused.
+            LoggingUtils.clearMdc();
+            if (context != null) {
+                ValidationContextHolder.set(previousContext);
+            }
+            if (securityContext != null) {
+                if (SecurityContextHolder.createEmptyContext().equals(previousSecurityContext)) {
+                    SecurityContextHolder.clearContext();
+                } else {
+                    SecurityContextHolder.setContext(previousSecurityContext);
+                }
+            }
+        }
+    }
+}
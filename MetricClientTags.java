@@ -0,0 +1,38 @@
+package net.intermedia.uav.postal;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Values of the <code>client</code> tag of postal metrics. Client names come from requests, so only the first
+ * <code>uav.postal.metrics.max-clients</code> clients get their own tag, further ones are tagged as <code>other</code>.
+ */
+@Component
+class MetricClientTags {
+
+    static final String OTHER = "other";
+    static final String UNKNOWN = "unknown";
+
+    @Value("${uav.postal.metrics.max-clients:100}")
+    private int maxClients;
+
+    private final Set<String> clients = ConcurrentHashMap.newKeySet();
+
+    String tag(String clientName) {
+        if (clientName == null) {
+            return UNKNOWN;
+        }
+        if (clients.contains(clientName)) {
+            return clientName;
+        }
+        if (clients.size() >= maxClients) {
+            return OTHER;
+        }
+        // concurrent first requests of different clients may exceed the limit by a few, that is fine for tags
+        clients.add(clientName);
+        return clientName;
+    }
+}
@@ -0,0 +1,161 @@
+package net.intermedia.uav.postal;
+
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.context.ValidationContext;
+import net.intermedia.uav.pojo.postal.PostalRequest;
+import org.springframework.security.core.context.SecurityContext;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * State of one validation request shared by all stages of the validation pipeline, whatever thread they run in.
+ */
+class PipelineContext {
+
+    static final long NO_TIMEOUT = -1;
+
+    private final ValidationContext validationContext;
+    private final SecurityContext securityContext;
+    private final Trace trace;
+    private final String source;
+    private final long deadlineNanos;
+    private final boolean hasDeadline;
+    private volatile boolean partial;
+    private volatile boolean cachedObjectRequired;
+    private volatile PipelineMetrics.Scope metrics = PipelineMetrics.Scope.DISABLED;
+    private final Map<PostalRequestKey, UavPostalCachedObject> cachedObjects = new ConcurrentHashMap<>(2);
+
+    /**
+     * @param securityContext security context of the request, bound to the threads executing its stages
+     * @param source          source of cache entries created by the request
+     * @param requestBudgetMs time the whole request may take, not limited if not positive
+     * @param trace           trace the stages of the request are recorded to
+     */
+    PipelineContext(ValidationContext validationContext, SecurityContext securityContext, String source, long requestBudgetMs, Trace trace) {
+        this.validationContext = validationContext;
+        this.securityContext = securityContext;
+        this.trace = trace;
+        this.source = source;
+        this.hasDeadline = requestBudgetMs > 0;
+        this.deadlineNanos = hasDeadline ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestBudgetMs) : 0;
+    }
+
+    ValidationContext getValidationContext() {
+        return validationContext;
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * Wraps a stage executed in a pool thread, so that it runs with MDC, validation and security contexts of the request.
+     */
+    <T> Supplier<T> bind(Supplier<T> supplier) {
+        return new MdcAwareSupplier<>(supplier, validationContext, securityContext);
+    }
+
+    /**
+     * Timers of the pipeline stages, known once the cache is read.
+     */
+    PipelineMetrics.Scope getMetrics() {
+        return metrics;
+    }
+
+    void setMetrics(PipelineMetrics.Scope metrics) {
+        this.metrics = metrics;
+    }
+
+    Trace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Executes a stage of the pipeline, timing it and recording its span.
+     */
+    <T> T stage(PipelineMetrics.Stage stage, Supplier<T> supplier) {
+        long startNanos = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            stageCompleted(stage, startNanos);
+        }
+    }
+
+    /**
+     * Records a stage started at <code>startNanos</code> and completed now. The span is a child of the request span
+     * whatever thread completes the stage.
+     */
+    void stageCompleted(PipelineMetrics.Stage stage, long startNanos) {
+        long endNanos = System.nanoTime();
+        metrics.record(stage, endNanos - startNanos);
+        trace.record(stage.getSpanName(), startNanos, endNanos);
+    }
+
+    /**
+     * Timeout of a step started now: the lesser of its own deadline and the time left of the request budget.
+     *
+     * @param stepTimeoutMs own deadline of the step, not limited if not positive
+     * @return timeout in milliseconds or {@link #NO_TIMEOUT}
+     */
+    long timeoutMillis(long stepTimeoutMs) {
+        long timeout = stepTimeoutMs > 0 ? stepTimeoutMs : Long.MAX_VALUE;
+        if (hasDeadline) {
+            timeout = Math.min(timeout, Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())));
+        }
+        return timeout == Long.MAX_VALUE ? NO_TIMEOUT : timeout;
+    }
+
+    /**
+     * Marks the result as incomplete: some sub-validation was rejected or did not finish in time.
+     */
+    void markPartial() {
+        partial = true;
+    }
+
+    boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * Marks that the caller needs the cache entry as it is after the write, so it must not be written in background.
+     */
+    void requireCachedObject() {
+        cachedObjectRequired = true;
+    }
+
+    boolean isCachedObjectRequired() {
+        return cachedObjectRequired;
+    }
+
+    /**
+     * Reads the entry the request is resolved to at most once per request: later reads get the object read or
+     * written before.
+     */
+    UavPostalCachedObject read(PostalRequest postalRequest, Function<PostalRequest, UavPostalCachedObject> loader) {
+        PostalRequestKey requestKey = PostalRequestKey.of(postalRequest);
+        UavPostalCachedObject uavPostalCachedObject = cachedObjects.get(requestKey);
+        if (uavPostalCachedObject == null) {
+            uavPostalCachedObject = loader.apply(postalRequest);
+            remember(postalRequest, uavPostalCachedObject);
+        }
+        return uavPostalCachedObject;
+    }
+
+    void remember(PostalRequest postalRequest, UavPostalCachedObject uavPostalCachedObject) {
+        if (uavPostalCachedObject != null) {
+            cachedObjects.put(PostalRequestKey.of(postalRequest), uavPostalCachedObject);
+        }
+    }
+
+    /**
+     * Drops the entry read before, e.g. when it is known to be changed by another request.
+     */
+    void forget(PostalRequest postalRequest) {
+        cachedObjects.remove(PostalRequestKey.of(postalRequest));
+    }
+}
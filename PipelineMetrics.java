@@ -0,0 +1,218 @@
+package net.intermedia.uav.postal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.EqualsAndHashCode;
+import net.intermedia.uav.context.ValidationContext;
+import net.intermedia.uav.country.Country;
+import net.intermedia.uav.pojo.postal.PostalRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Latency of every stage of the validation pipeline, published as <code>uav.postal.stage</code> timers with a percentile
+ * histogram, tagged by stage, provider, country and cache outcome. Percentiles are computed by the monitoring
+ * backend from the histogram buckets, which are bounded to 1ms - 60s. Clients are only tagged on plain counters:
+ * cache reads of validations as <code>uav.postal.validate.requests</code> and fatal results as
+ * <code>uav.postal.validate.fatal</code>, see {@link MetricClientTags}. Alarms sent for failed sub-validation calls
+ * are counted as <code>uav.postal.subvalidation.alarms</code>.
+ * <p>
+ * Timers of a request are looked up once, when its cache outcome is known, stages are timed by
+ * {@link PipelineContext#stage}. Everything is off with <code>uav.postal.metrics.stages.enabled=false</code>.
+ */
+@Component
+class PipelineMetrics {
+
+    private static final String UNKNOWN = "unknown";
+
+    enum Stage {
+        CACHE_READ("cache-read", "none"),
+        CORRECTIONS("corrections", "none"),
+        MAIL("mail", "mail"),
+        SHIP("provider", ValidationProvider.SHIP.getKey()),
+        TAX("provider", ValidationProvider.TAX.getKey()),
+        E911("provider", ValidationProvider.E911.getKey()),
+        MERGE("merge", "none"),
+        CACHE_UPDATE("cache-update", "none");
+
+        private final String key;
+        private final String provider;
+        private final String spanName;
+
+        Stage(String key, String provider) {
+            this.key = key;
+            this.provider = provider;
+            this.spanName = name().toLowerCase().replace('_', '-');
+        }
+
+        /**
+         * Name of the tracing span and of the <code>Server-Timing</code> metric of the stage.
+         */
+        String getSpanName() {
+            return spanName;
+        }
+
+        static Stage of(ValidationProvider provider) {
+            switch (provider) {
+                case SHIP:
+                    return SHIP;
+                case TAX:
+                    return TAX;
+                default:
+                    return E911;
+            }
+        }
+    }
+
+    enum CacheOutcome {
+        /**
+         * The cached entry answers the request.
+         */
+        HIT,
+        /**
+         * There is no cached entry, the address is validated from scratch.
+         */
+        MISS,
+        /**
+         * The cached entry lacks sub-validations the request asks for.
+         */
+        UPGRADE;
+
+        String getKey() {
+            return name().toLowerCase();
+        }
+    }
+
+    @Value("${uav.postal.metrics.stages.enabled:true}")
+    private boolean enabled;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private MetricClientTags metricClientTags;
+
+    private final Map<ScopeKey, Scope> scopes = new ConcurrentHashMap<>();
+
+    private final Map<ScopeKey, Counter> requestCounters = new ConcurrentHashMap<>();
+
+    private final Map<ScopeKey, Counter> fatalCounters = new ConcurrentHashMap<>();
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    Scope scope(PostalRequest postalRequest, ValidationContext validationContext, CacheOutcome cacheOutcome) {
+        if (!enabled) {
+            return Scope.DISABLED;
+        }
+        String country = country(postalRequest);
+        lookup(requestCounters, new ScopeKey(country, client(validationContext), cacheOutcome.getKey()), this::createRequestCounter)
+                .increment();
+        return lookup(scopes, new ScopeKey(country, null, cacheOutcome.getKey()), this::createScope);
+    }
+
+    void fatal(PostalRequest postalRequest, ValidationContext validationContext) {
+        if (enabled) {
+            lookup(fatalCounters, new ScopeKey(country(postalRequest), client(validationContext), null), this::createFatalCounter)
+                    .increment();
+        }
+    }
+
+    void alarmSent(ValidationProvider provider) {
+        if (enabled) {
+            Counter.builder("uav.postal.subvalidation.alarms")
+                    .description("Alarms sent for provider errors of sub-validation calls of validation requests")
+                    .tag("provider", provider.getKey())
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    private static <M> M lookup(Map<ScopeKey, M> meters, ScopeKey key, Function<ScopeKey, M> factory) {
+        M meter = meters.get(key);
+        return meter != null ? meter : meters.computeIfAbsent(key, factory);
+    }
+
+    private Scope createScope(ScopeKey key) {
+        Timer[] timers = new Timer[Stage.values().length];
+        for (Stage stage : Stage.values()) {
+            timers[stage.ordinal()] = Timer.builder("uav.postal.stage")
+                    .description("Latency of a stage of the validation pipeline")
+                    .tag("stage", stage.key)
+                    .tag("provider", stage.provider)
+                    .tag("country", key.country)
+                    .tag("cache", key.cacheOutcome)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(60))
+                    .register(meterRegistry);
+        }
+        return new Scope(timers);
+    }
+
+    private Counter createRequestCounter(ScopeKey key) {
+        return Counter.builder("uav.postal.validate.requests")
+                .description("Validations by the outcome of their cache read")
+                .tag("country", key.country)
+                .tag("client", key.client)
+                .tag("cache", key.cacheOutcome)
+                .register(meterRegistry);
+    }
+
+    private Counter createFatalCounter(ScopeKey key) {
+        return meterRegistry.counter("uav.postal.validate.fatal", "country", key.country, "client", key.client);
+    }
+
+    private static String country(PostalRequest postalRequest) {
+        Country country = CountryResolver.findCountry(postalRequest.getCountry());
+        return country != null ? country.name() : UNKNOWN;
+    }
+
+    private String client(ValidationContext validationContext) {
+        return metricClientTags.tag(validationContext != null ? validationContext.getClientName() : null);
+    }
+
+    /**
+     * Timers of the stages of one combination of tags.
+     */
+    static class Scope {
+
+        static final Scope DISABLED = new Scope(null);
+
+        private final Timer[] timers;
+
+        private Scope(Timer[] timers) {
+            this.timers = timers;
+        }
+
+        void record(Stage stage, long durationNanos) {
+            if (timers != null) {
+                timers[stage.ordinal()].record(durationNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    @EqualsAndHashCode
+    private static class ScopeKey {
+        private final String country;
+        // null for timers, which are not tagged by client
+        private final String client;
+        // null for fatal counters, which are not tagged by cache outcome
+        private final String cacheOutcome;
+
+        private ScopeKey(String country, String client, String cacheOutcome) {
+            this.country = country;
+            this.client = client;
+            this.cacheOutcome = cacheOutcome;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package net.intermedia.uav.postal;
+
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.pojo.postal.PostalRC;
+import net.intermedia.uav.pojo.postal.PostalValidationRequest;
+import net.intermedia.uav.pojo.postal.ShippingRC;
+import net.intermedia.uav.pojo.postal.TaxRC;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Seeded corpus of US addresses shared by the benchmarks, so that runs on different builds validate the same input.
+ * Requests are sent the way clients send them (mixed case, extra spaces), cached entries hold the normalized address.
+ */
+final class PostalBenchmarkCorpus {
+
+    static final long SEED = 20_240_611L;
+
+    private static final String[] STREETS = {"Main", "Oak", "Pine", "Maple", "Cedar", "Elm", "Washington", "Lake", "Hill",
+            "Park", "Sunset", "Ridge", "Mill", "Church", "River"};
+    private static final String[] SUFFIXES = {"St", "Ave", "Rd", "Blvd", "Dr", "Ln", "Ct", "Way"};
+    private static final String[][] CITIES = {{"Sunnyvale", "CA", "94085"}, {"Austin", "TX", "78701"},
+            {"Clearwater", "FL", "33755"}, {"Denver", "CO", "80202"}, {"Seattle", "WA", "98101"},
+            {"Albany", "NY", "12207"}, {"Columbus", "OH", "43215"}, {"Phoenix", "AZ", "85004"}};
+
+    private PostalBenchmarkCorpus() {
+    }
+
+    /**
+     * @param size number of distinct addresses
+     */
+    static List<PostalValidationRequest> requests(int size) {
+        Random random = new Random(SEED);
+        List<PostalValidationRequest> requests = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String[] city = CITIES[random.nextInt(CITIES.length)];
+            PostalValidationRequest request = new PostalValidationRequest();
+            String street = (1 + random.nextInt(9999)) + " " + STREETS[random.nextInt(STREETS.length)] + " "
+                    + SUFFIXES[random.nextInt(SUFFIXES.length)];
+            // a third of the clients send lower case with a double space, as seen in production logs
+            request.setAddressLine1(random.nextInt(3) == 0 ? street.toLowerCase(Locale.ROOT).replace(" ", "  ") : street);
+            request.setAddressLine2(random.nextInt(4) == 0 ? "Suite " + (100 + random.nextInt(900)) : null);
+            request.setCity(city[0]);
+            request.setState(city[1]);
+            request.setZip(city[2]);
+            request.setCountry("US");
+            request.setCheckTax(random.nextBoolean());
+            request.setCheckShip(random.nextBoolean());
+            request.setCheckE911(false);
+            requests.add(request);
+        }
+        return Collections.unmodifiableList(requests);
+    }
+
+    /**
+     * Cache entry of a request with mail, tax and shipping validated.
+     */
+    static UavPostalCachedObject cachedObject(PostalValidationRequest request, String uid) {
+        UavPostalValidationResult result = new UavPostalValidationResult();
+        result.setAddressLine1(TextNormalizer.normalizeKey(request.getAddressLine1()).toUpperCase(Locale.ROOT));
+        result.setAddressLine2(request.getAddressLine2() != null ? request.getAddressLine2().toUpperCase(Locale.ROOT) : null);
+        result.setCity(request.getCity().toUpperCase(Locale.ROOT));
+        result.setState(request.getState());
+        result.setZip(request.getZip() + "-0001");
+        result.setSyntaxValid(true);
+        PostalRC postalRC = new PostalRC();
+        postalRC.setPostalValid(true);
+        result.setPostalRC(postalRC);
+        TaxRC taxRC = new TaxRC();
+        taxRC.setTaxValid(true);
+        result.setTaxRC(taxRC);
+        ShippingRC shippingRC = new ShippingRC();
+        shippingRC.setShippingValid(true);
+        result.setShippingRC(shippingRC);
+
+        UavPostalCachedObject uavPostalCachedObject = new UavPostalCachedObject();
+        uavPostalCachedObject.setUid(uid);
+        uavPostalCachedObject.setPostalValidationResult(result);
+        uavPostalCachedObject.setIsCustomAddress(false);
+        return uavPostalCachedObject;
+    }
+}
@@ -0,0 +1,92 @@
+package net.intermedia.uav.postal;
+
+import net.intermedia.uav.postal.custom.CustomAddressIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Operator access to in-process postal caches: <code>GET /actuator/postalcache</code> shows their sizes,
+ * <code>DELETE /actuator/postalcache/{cache}</code> purges one of them, <code>POST /actuator/postalcache</code> takes
+ * a snapshot of the near cache to warm up the next start with, <code>POST /actuator/postalcache/custom</code> rebuilds
+ * the custom address index from the cache.
+ */
+@Component
+@Endpoint(id = "postalcache")
+public class PostalCacheEndpoint {
+
+    static final String NEAR_CACHE = "near";
+    static final String FATAL_CACHE = "fatal";
+    static final String CORRECTIONS_MEMO = "corrections";
+    static final String CUSTOM_INDEX = "custom";
+
+    @Autowired
+    private UavPostalNearCache uavPostalNearCache;
+
+    @Autowired
+    private FatalResultCache fatalResultCache;
+
+    @Autowired
+    private UavCorrectionsMemo uavCorrectionsMemo;
+
+    @Autowired
+    private UavPostalCacheWarmUp uavPostalCacheWarmUp;
+
+    @Autowired
+    private CustomAddressIndex customAddressIndex;
+
+    @ReadOperation
+    public Map<String, Object> sizes() {
+        Map<String, Object> sizes = new LinkedHashMap<>();
+        sizes.put(NEAR_CACHE, uavPostalNearCache.size());
+        sizes.put(FATAL_CACHE, fatalResultCache.size());
+        sizes.put(CORRECTIONS_MEMO, uavCorrectionsMemo.size());
+        sizes.put(CUSTOM_INDEX, customAddressIndex.size());
+        return sizes;
+    }
+
+    @WriteOperation
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put(NEAR_CACHE, uavPostalCacheWarmUp.snapshot());
+        return snapshot;
+    }
+
+    @WriteOperation
+    public Map<String, Object> rebuild(@Selector String cache) {
+        if (!CUSTOM_INDEX.equals(cache)) {
+            throw new IllegalStateException("Unexpected cache: " + cache + ", only " + CUSTOM_INDEX + " can be rebuilt");
+        }
+        Map<String, Object> rebuilt = new LinkedHashMap<>();
+        rebuilt.put(CUSTOM_INDEX, customAddressIndex.rebuild());
+        return rebuilt;
+    }
+
+    @DeleteOperation
+    public Map<String, Object> purge(@Selector String cache) {
+        Map<String, Object> purged = new LinkedHashMap<>();
+        switch (cache) {
+            case NEAR_CACHE:
+                purged.put(NEAR_CACHE, uavPostalNearCache.size());
+                uavPostalNearCache.invalidateAll();
+                break;
+            case FATAL_CACHE:
+                purged.put(FATAL_CACHE, fatalResultCache.purge());
+                break;
+            case CORRECTIONS_MEMO:
+                purged.put(CORRECTIONS_MEMO, uavCorrectionsMemo.purge());
+                break;
+            default:
+                throw new IllegalStateException("Unexpected cache: " + cache + ", expected one of " + NEAR_CACHE + ", " + FATAL_CACHE
+                        + ", " + CORRECTIONS_MEMO);
+        }
+        return purged;
+    }
+}
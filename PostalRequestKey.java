@@ -0,0 +1,56 @@
+package net.intermedia.uav.postal;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.intermedia.uav.pojo.postal.PostalRequest;
+
+/**
+ * Address part of a postal request exactly as it was sent by a client. No normalization is applied on purpose:
+ * requests with equal keys are guaranteed to be resolved to the same cache entry and to get the same corrections.
+ * Use {@link #normalized()} where only the address itself matters.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public final class PostalRequestKey {
+
+    private final String addressLine1;
+    private final String addressLine2;
+    private final String addressLine3;
+    private final String city;
+    private final String state;
+    private final String zip;
+    private final String country;
+
+    PostalRequestKey(String addressLine1, String addressLine2, String addressLine3, String city, String state,
+                     String zip, String country) {
+        this.addressLine1 = addressLine1;
+        this.addressLine2 = addressLine2;
+        this.addressLine3 = addressLine3;
+        this.city = city;
+        this.state = state;
+        this.zip = zip;
+        this.country = country;
+    }
+
+    public static PostalRequestKey of(PostalRequest postalRequest) {
+        return new PostalRequestKey(postalRequest.getAddressLine1(), postalRequest.getAddressLine2(),
+                postalRequest.getAddressLine3(), postalRequest.getCity(), postalRequest.getState(),
+                postalRequest.getZip(), postalRequest.getCountry());
+    }
+
+    /**
+     * Key that ignores case and extra whitespace. Requests with equal normalized keys are the same address,
+     * but may differ in corrections reported to a client.
+     */
+    public PostalRequestKey normalized() {
+        return new PostalRequestKey(normalize(addressLine1), normalize(addressLine2), normalize(addressLine3),
+                normalize(city), normalize(state), normalize(zip), normalize(country));
+    }
+
+    private static String normalize(String value) {
+        if (value == null) return "";
+        return TextNormalizer.normalizeKey(value);
+    }
+}
@@ -0,0 +1,294 @@
+package net.intermedia.uav.postal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.intermedia.uav.cache.UavCacheService;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.common.utils.async.UavAsyncExecutor;
+import net.intermedia.uav.pojo.postal.E911RC;
+import net.intermedia.uav.pojo.postal.PostalRequest;
+import net.intermedia.uav.pojo.postal.PostalValidationRequest;
+import net.intermedia.uav.pojo.postal.PostalValidationResult;
+import net.intermedia.uav.pojo.postal.ShippingRC;
+import net.intermedia.uav.pojo.postal.TaxRC;
+import net.intermedia.uav.postal.custom.CustomAddressIndex;
+import net.intermedia.uav.postal.e911.E911ValidationService;
+import net.intermedia.uav.postal.shipping.ShipValidationService;
+import net.intermedia.uav.postal.tax.TaxValidationService;
+import net.intermedia.uav.utils.AlarmService;
+import net.intermedia.uav.utils.UavCorrectionsService;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Throughput and latency percentiles of {@link PostalValidationServiceImpl#validate} wired as in the application,
+ * with mail, tax, E911 and shipping providers and the cache replaced by stubs. Each stub call waits for a latency
+ * drawn from its distribution and fails with the given error rate. Addresses of the seeded corpus are cached with all
+ * sub-validations (<code>hit</code>), with the mail validation only, so that a request checking tax or shipping
+ * validates them and updates the entry (<code>upgrade</code>), or not cached at all (<code>miss</code>), in the given
+ * ratios. The cache stub never stores writes, so the ratios hold for the whole run.
+ * <p>
+ * A latency distribution is <code>fixed:&lt;ms&gt;</code> or <code>lognormal:&lt;median ms&gt;:&lt;sigma&gt;</code>.
+ * Run {@link #main} to measure every combination at 1, 8, 32 and 128 threads, p50 - p99.9 are reported by the sample
+ * mode. A failed validation counts as an operation, as clients get an error as quickly.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PostalValidationBenchmark {
+
+    private static final int ADDRESSES = 10000;
+
+    /**
+     * Sub-validations the requests ask for besides the mail validation.
+     */
+    @Param({"mail", "tax", "ship", "tax+ship", "all"})
+    private String flags;
+
+    @Param({"0.0", "0.9", "1.0"})
+    private double hitRatio;
+
+    /**
+     * Share of cached addresses that lack all sub-validations.
+     */
+    @Param({"0.0", "0.3"})
+    private double upgradeRatio;
+
+    @Param({"0.0", "0.01"})
+    private double errorRate;
+
+    @Param({"lognormal:2:0.5"})
+    private String cacheLatency;
+
+    @Param({"lognormal:40:0.6"})
+    private String mailLatency;
+
+    @Param({"lognormal:60:0.8"})
+    private String providerLatency;
+
+    @Param({"true"})
+    private boolean nearCache;
+
+    @Param({"platform"})
+    private String asyncMode;
+
+    private AnnotationConfigApplicationContext context;
+    private ExecutorService asyncPool;
+    private PostalValidationServiceImpl postalValidationService;
+    private List<PostalValidationRequest> requests;
+
+    @Setup
+    public void setUp() {
+        requests = PostalBenchmarkCorpus.requests(ADDRESSES);
+        UavPostalCachedObjectSerializer serializer = new UavPostalCachedObjectSerializer(new ObjectMapper());
+        Map<PostalRequestKey, byte[]> entries = new HashMap<>();
+        Map<PostalRequestKey, byte[]> mailResults = new HashMap<>();
+        Random random = new Random(PostalBenchmarkCorpus.SEED);
+        for (int i = 0; i < ADDRESSES; i++) {
+            PostalValidationRequest request = requests.get(i);
+            request.setCheckTax(flags.contains("tax") || flags.equals("all"));
+            request.setCheckShip(flags.contains("ship") || flags.equals("all"));
+            request.setCheckE911(flags.equals("all"));
+
+            String uid = "uid-" + i;
+            UavPostalCachedObject complete = PostalBenchmarkCorpus.cachedObject(request, uid);
+            UavPostalValidationResult result = complete.getPostalValidationResult();
+            // any result code, mappings must not be empty for the result to be cached
+            result.setResults(new TreeSet<>(EnumSet.of(PostalValidationResult.Result.AV24)));
+            E911RC e911RC = new E911RC();
+            e911RC.setE911Valid(true);
+            result.setE911RC(e911RC);
+
+            UavPostalValidationResult mailOnly = serializer.deserializeResult(serializer.serializeResult(result));
+            mailOnly.setTaxRC(null);
+            mailOnly.setShippingRC(null);
+            mailOnly.setE911RC(null);
+            mailResults.put(PostalRequestKey.of(request), serializer.serializeResult(mailOnly));
+
+            UavPostalCachedObject cached;
+            if (random.nextDouble() >= hitRatio) {
+                cached = new UavPostalCachedObject();
+                cached.setUid(uid);
+            } else if (random.nextDouble() < upgradeRatio) {
+                cached = PostalBenchmarkCorpus.cachedObject(request, uid);
+                cached.setPostalValidationResult(mailOnly);
+            } else {
+                cached = complete;
+            }
+            entries.put(PostalRequestKey.of(request), serializer.serialize(cached));
+        }
+
+        LatencyDistribution cacheLatencyDistribution = LatencyDistribution.parse(cacheLatency);
+        LatencyDistribution mailLatencyDistribution = LatencyDistribution.parse(mailLatency);
+        LatencyDistribution providerLatencyDistribution = LatencyDistribution.parse(providerLatency);
+
+        // every read gets its own copy, as from the remote cache
+        UavCacheService uavCacheService = Mockito.mock(UavCacheService.class);
+        when(uavCacheService.getUavPostalCachedObject(any(PostalRequest.class))).thenAnswer(invocation -> call(cacheLatencyDistribution,
+                () -> serializer.deserialize(entries.get(PostalRequestKey.of(invocation.getArgument(0))))));
+        when(uavCacheService.updateUavPostalCachedObject(any())).thenAnswer(invocation -> call(cacheLatencyDistribution,
+                () -> invocation.getArgument(0)));
+
+        MailValidationService mailValidationService = Mockito.mock(MailValidationService.class);
+        when(mailValidationService.validateAddress(any(), any(), any())).thenAnswer(invocation -> call(mailLatencyDistribution,
+                () -> serializer.deserializeResult(mailResults.get(PostalRequestKey.of(invocation.getArgument(2))))));
+
+        TaxValidationService taxValidationService = Mockito.mock(TaxValidationService.class);
+        when(taxValidationService.validate(any(), any())).thenAnswer(invocation -> call(providerLatencyDistribution, () -> {
+            TaxRC taxRC = new TaxRC();
+            taxRC.setTaxValid(true);
+            UavPostalValidationResult result = new UavPostalValidationResult();
+            result.setTaxRC(taxRC);
+            return result;
+        }));
+
+        ShipValidationService shipValidationService = Mockito.mock(ShipValidationService.class);
+        when(shipValidationService.validate(any(), any())).thenAnswer(invocation -> call(providerLatencyDistribution, () -> {
+            ShippingRC shippingRC = new ShippingRC();
+            shippingRC.setShippingValid(true);
+            UavPostalValidationResult result = new UavPostalValidationResult();
+            result.setShippingRC(shippingRC);
+            return result;
+        }));
+
+        E911ValidationService e911ValidationService = Mockito.mock(E911ValidationService.class);
+        when(e911ValidationService.validate(any(), any())).thenAnswer(invocation -> call(providerLatencyDistribution, () -> {
+            E911RC e911RC = new E911RC();
+            e911RC.setE911Valid(true);
+            UavPostalValidationResult result = new UavPostalValidationResult();
+            result.setE911RC(e911RC);
+            return result;
+        }));
+
+        asyncPool = Executors.newFixedThreadPool(256, new CustomizableThreadFactory("uav-async-"));
+        UavAsyncExecutor uavAsyncExecutor = Mockito.mock(UavAsyncExecutor.class);
+        when(uavAsyncExecutor.supplyAsync(any())).thenAnswer(invocation ->
+                CompletableFuture.supplyAsync(invocation.<Supplier<?>>getArgument(0), asyncPool));
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("uav.postal.near-cache.enabled", nearCache);
+        properties.put("uav.postal.async.mode", asyncMode);
+        properties.put("uav.postal.tracing.enabled", false);
+
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.registerBean(ObjectMapper.class, ObjectMapper::new);
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.registerBean(UavCacheService.class, () -> uavCacheService);
+        context.registerBean(MailValidationService.class, () -> mailValidationService);
+        context.registerBean(TaxValidationService.class, () -> taxValidationService);
+        context.registerBean(ShipValidationService.class, () -> shipValidationService);
+        context.registerBean(E911ValidationService.class, () -> e911ValidationService);
+        context.registerBean(AlarmService.class, () -> Mockito.mock(AlarmService.class));
+        context.registerBean(UavAsyncExecutor.class, () -> uavAsyncExecutor);
+        context.registerBean(UavCorrectionsService.class, UavCorrectionsService::new);
+        context.register(PostalValidationServiceImpl.class, UavPostalCachedObjectSerializer.class, UavPostalNearCache.class,
+                FatalResultCache.class, UavCacheWriteBehindQueue.class, UavCorrectionsMemo.class, SubValidationRefresher.class,
+                CustomAddressIndex.class, PipelineMetrics.class, MetricClientTags.class, Tracer.class, ProviderCallExecutor.class);
+        context.refresh();
+        postalValidationService = context.getBean(PostalValidationServiceImpl.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        asyncPool.shutdownNow();
+    }
+
+    @Benchmark
+    public UavPostalValidationResult validate() {
+        PostalValidationRequest request = requests.get(ThreadLocalRandom.current().nextInt(ADDRESSES));
+        try {
+            return postalValidationService.validate(null, request);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private <T> T call(LatencyDistribution latency, Supplier<T> result) {
+        LockSupport.parkNanos(latency.sampleNanos());
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            throw new IllegalStateException("Stub call failed");
+        }
+        return result.get();
+    }
+
+    private static final class LatencyDistribution {
+        private final long medianNanos;
+        private final double sigma;
+
+        private LatencyDistribution(long medianNanos, double sigma) {
+            this.medianNanos = medianNanos;
+            this.sigma = sigma;
+        }
+
+        static LatencyDistribution parse(String spec) {
+            String[] parts = spec.split(":");
+            long medianNanos = (long) (Double.parseDouble(parts[1]) * TimeUnit.MILLISECONDS.toNanos(1));
+            if ("fixed".equals(parts[0]) && parts.length == 2) {
+                return new LatencyDistribution(medianNanos, 0);
+            }
+            if ("lognormal".equals(parts[0]) && parts.length == 3) {
+                return new LatencyDistribution(medianNanos, Double.parseDouble(parts[2]));
+            }
+            throw new IllegalStateException("Unexpected latency distribution: " + spec);
+        }
+
+        long sampleNanos() {
+            if (sigma == 0) {
+                return medianNanos;
+            }
+            return (long) (medianNanos * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 8, 32, 128}) {
+            new Runner(new OptionsBuilder()
+                    .include(PostalValidationBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("postal-validation-" + threads + "-threads.json")
+                    .build()).run();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package net.intermedia.uav.postal;
 
 import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.log4j.Log4j2;
@@ -16,15 +17,30 @@ import net.intermedia.uav.pojo.postal.PostalValidationResult;
 import net.intermedia.uav.pojo.postal.SearchAddressType;
 import net.intermedia.uav.pojo.postal.SearchCustomAddressesResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * REST controller that handle postal address validation requests
@@ -35,32 +51,114 @@ import javax.validation.Valid;
 @RequestMapping(Mapping.POSTAL)
 public class PostalValidationRestController {
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String SERVER_TIMING = "Server-Timing";
+
     @Autowired
     private PostalValidationService postalValidationService;
 
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Tracer tracer;
+
+    @Value("${uav.postal.batch.max-size:50000}")
+    private int batchMaxSize;
+
+    @Value("${uav.postal.search.stream-page-size:500}")
+    private int streamPageSize;
+
     /**
      * Validates postal address. Additionally performs address validation for tax if <code>checkTax</code> is set to true
-     * and emergency if <code>checkE911</code> is set to true.
+     * and emergency if <code>checkE911</code> is set to true. Time of the validation stages is returned in the
+     * <code>Server-Timing</code> header.
      */
     @ApiOperation(value = "Validates postal address.",
             notes = "Additionally performs address validation for tax if checkTax is set to true\n" +
                     " and emergency if checkE911 is set to true.")
     @GetMapping(Mapping.POSTAL_VALIDATE)
     @JsonView(UserView.class)
-    public PostalValidationResult validate(@Valid PostalValidationRequest postalValidationRequest) throws MissingServletRequestParameterException {
+    public CompletableFuture<ResponseEntity<PostalValidationResult>> validate(@Valid PostalValidationRequest postalValidationRequest) throws MissingServletRequestParameterException {
         checkRequest(postalValidationRequest);
         ValidationContext validationContext = ValidationContextHolder.get();
+        Trace trace = tracer.start("validate", validationContext);
+
+        // the request thread is released here, the response is written when the validation completes
+        Thread requestThread = Thread.currentThread();
+        return withServerTiming(postalValidationService.validateAsync(validationContext, postalValidationRequest, trace)
+                .thenApply(result -> {
+                    if (validationContext != null) {
+                        result.setUavRequestID(validationContext.getRequestId().toString());
+                        result.setClientRequestID(validationContext.getClientRequestID());
+                    }
 
-        UavPostalValidationResult result = postalValidationService.validate(validationContext, postalValidationRequest);
+                    if (Thread.currentThread() == requestThread) {
+                        log.info("responseLog: " + result);
+                    } else {
+                        // completed in a pool thread, which has no MDC of this request
+                        new MdcAwareSupplier<>(() -> {
+                            log.info("responseLog: " + result);
+                            return result;
+                        }, validationContext).get();
+                    }
 
-        if (validationContext != null) {
-            result.setUavRequestID(validationContext.getRequestId().toString());
-            result.setClientRequestID(validationContext.getClientRequestID());
+                    return result;
+                }), trace);
+    }
+
+    @ApiOperation(value = "Validates a list of postal addresses.",
+            notes = "Each address is validated the same way as by the validate operation. Equal addresses are validated once.\n" +
+                    " Results are returned in the order of the request, invalid or failed addresses are reported with an error.")
+    @PostMapping(Mapping.POSTAL_VALIDATE + "/batch")
+    @JsonView(UserView.class)
+    public CompletableFuture<List<UavPostalBatchValidationItem>> validateAll(@RequestBody List<PostalValidationRequest> postalValidationRequests) {
+        if (postalValidationRequests.size() > batchMaxSize) {
+            throw new InvalidBatchException("batch size must be equals or less than " + batchMaxSize);
         }
+        ValidationContext validationContext = ValidationContextHolder.get();
 
-        log.info("responseLog: " + result);
+        // invalid requests are reported in place, all the others are validated at once
+        List<UavPostalBatchValidationItem> items = new ArrayList<>(postalValidationRequests.size());
+        List<PostalValidationRequest> acceptedRequests = new ArrayList<>(postalValidationRequests.size());
+        for (PostalValidationRequest postalValidationRequest : postalValidationRequests) {
+            String violation = findViolation(postalValidationRequest);
+            if (violation == null) {
+                acceptedRequests.add(postalValidationRequest);
+            }
+            items.add(violation == null ? null : UavPostalBatchValidationItem.failed(violation));
+        }
 
-        return result;
+        // the request thread is released here, the response is written when the whole batch is validated
+        Thread requestThread = Thread.currentThread();
+        return postalValidationService.validateAllAsync(validationContext, acceptedRequests)
+                .thenApply(validatedItems -> {
+                    for (int i = 0, validated = 0; i < items.size(); i++) {
+                        if (items.get(i) == null) {
+                            UavPostalBatchValidationItem item = validatedItems.get(validated++);
+                            if (validationContext != null && item.getResult() != null) {
+                                item.getResult().setUavRequestID(validationContext.getRequestId().toString());
+                                item.getResult().setClientRequestID(validationContext.getClientRequestID());
+                            }
+                            items.set(i, item);
+                        }
+                    }
+
+                    if (Thread.currentThread() == requestThread) {
+                        log.info("responseLog: batch of " + items.size() + " addresses");
+                    } else {
+                        // completed in a pool thread, which has no MDC of this request
+                        new MdcAwareSupplier<>(() -> {
+                            log.info("responseLog: batch of " + items.size() + " addresses");
+                            return items;
+                        }, validationContext).get();
+                    }
+
+                    return items;
+                });
     }
 
     @ApiOperation(
@@ -68,9 +166,11 @@ public class PostalValidationRestController {
             notes = "Lookup address in cache. If address is not found it will be validated and cached object will be returned."
     )
     @GetMapping(Mapping.LOOKUP_ADDRESS)
-    public UavPostalCachedObject lookup(@Valid PostalValidationRequest postalValidationRequest) throws MissingServletRequestParameterException {
+    public CompletableFuture<ResponseEntity<UavPostalCachedObject>> lookup(@Valid PostalValidationRequest postalValidationRequest) throws MissingServletRequestParameterException {
         checkRequest(postalValidationRequest);
-        return postalValidationService.lookup(ValidationContextHolder.get(), postalValidationRequest);
+        ValidationContext validationContext = ValidationContextHolder.get();
+        Trace trace = tracer.start("lookup", validationContext);
+        return withServerTiming(postalValidationService.lookupAsync(validationContext, postalValidationRequest, trace), trace);
     }
 
     @ApiOperation(
@@ -108,14 +208,101 @@ public class PostalValidationRestController {
         return response;
     }
 
+    @ApiOperation(
+            value = "Search custom addresses by cursor",
+            notes = "Search custom addresses by fields: country, state, city, zip, full_street_address. " +
+                    "Pass nextCursor of a page to get the next one, it is absent on the last page. " +
+                    "Answered by the custom address index of this instance once it is built, if enabled by uav.postal.custom-index.enabled: " +
+                    "addresses written through other instances are found after the index is rebuilt. " +
+                    "Otherwise pages are read from the cache by offset and the same pageSize must be passed with every cursor"
+    )
+    @GetMapping(value = Mapping.SEARCH + "/cursor")
+    public CustomAddressCursorPage searchCustomByCursor(@RequestParam(value = "pageSize", required = false, defaultValue = "100") Integer pageSize,
+                                                       @RequestParam(value = "cursor", required = false) String cursor,
+                                                       @RequestParam(value = "searchAddressType", required = false, defaultValue = "ALL") SearchAddressType searchAddressType,
+                                                       @RequestParam(value = "country", required = false) String country,
+                                                       @RequestParam(value = "state", required = false) String state,
+                                                       @RequestParam(value = "city", required = false) String city,
+                                                       @RequestParam(value = "zip", required = false) String zip,
+                                                       @RequestParam(value = "full_street_address", required = false) String fullStreetAddress) {
+        if (pageSize < 1) {
+            throw new IllegalStateException("pageSize must be equals or more than 1");
+        }
+        return postalValidationService.searchCustomByCursor(pageSize, cursor, searchAddressType, country, state, city, zip, fullStreetAddress);
+    }
+
+    @ApiOperation(
+            value = "Export custom addresses",
+            notes = "Streams all custom addresses found by fields: country, state, city, zip, full_street_address " +
+                    "as newline delimited JSON, one address per line"
+    )
+    @GetMapping(value = Mapping.SEARCH + "/stream", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamCustom(@RequestParam(value = "searchAddressType", required = false, defaultValue = "ALL") SearchAddressType searchAddressType,
+                                                              @RequestParam(value = "country", required = false) String country,
+                                                              @RequestParam(value = "state", required = false) String state,
+                                                              @RequestParam(value = "city", required = false) String city,
+                                                              @RequestParam(value = "zip", required = false) String zip,
+                                                              @RequestParam(value = "full_street_address", required = false) String fullStreetAddress) {
+        StreamingResponseBody body = out -> {
+            try {
+                postalValidationService.streamCustomByParams(streamPageSize, searchAddressType, country, state, city, zip, fullStreetAddress, page -> {
+                    try {
+                        for (UavPostalCachedObject uavPostalCachedObject : page) {
+                            out.write(objectMapper.writeValueAsBytes(uavPostalCachedObject));
+                            out.write('\n');
+                        }
+                        // every page reaches the client as soon as it is read
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
     private boolean isOutputLanguageRequired(String c) {
-        Country country = Country.find(c);
+        Country country = CountryResolver.findCountry(c);
         return !(country == Country.US
                 || country == Country.CA
                 || country == Country.PR);
 
     }
 
+    private String findViolation(PostalValidationRequest postalValidationRequest) {
+        if (postalValidationRequest == null) {
+            return "Address should not be null";
+        }
+        Set<ConstraintViolation<PostalValidationRequest>> violations = validator.validate(postalValidationRequest);
+        if (!violations.isEmpty()) {
+            return violations.stream()
+                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                    .collect(Collectors.joining(", "));
+        }
+        try {
+            checkRequest(postalValidationRequest);
+            return null;
+        } catch (MissingServletRequestParameterException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Finishes the trace of the request and returns the time of its stages in the <code>Server-Timing</code> header.
+     */
+    private static <T> CompletableFuture<ResponseEntity<T>> withServerTiming(CompletableFuture<T> response, Trace trace) {
+        return response.whenComplete((result, e) -> trace.finish())
+                .thenApply(result -> {
+                    String serverTiming = trace.serverTiming();
+                    return serverTiming == null ?
+                            ResponseEntity.ok(result) :
+                            ResponseEntity.ok().header(SERVER_TIMING, serverTiming).body(result);
+                });
+    }
+
     private void checkRequest(PostalValidationRequest postalValidationRequest) throws MissingServletRequestParameterException {
         if (StringUtils.isEmpty(postalValidationRequest.getZip())
                 && (StringUtils.isEmpty(postalValidationRequest.getCity()) || StringUtils.isEmpty(postalValidationRequest.getState()))) {
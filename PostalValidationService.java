@@ -7,6 +7,10 @@ import net.intermedia.uav.pojo.postal.PostalValidationRequest;
 import net.intermedia.uav.pojo.postal.SearchAddressType;
 import net.intermedia.uav.pojo.postal.SearchCustomAddressesResponse;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 /**
  * Business logic for postal validation
  */
@@ -14,12 +18,63 @@ public interface PostalValidationService {
 
     <T extends PostalRequest> UavPostalValidationResult validate(ValidationContext validationContext, T postalRequest);
 
+    /**
+     * Same as {@link #validate(ValidationContext, PostalRequest)}, but does not block the calling thread.
+     */
+    <T extends PostalRequest> CompletableFuture<UavPostalValidationResult> validateAsync(ValidationContext validationContext, T postalRequest);
+
+    /**
+     * Same as {@link #validateAsync(ValidationContext, PostalRequest)}, recording the stages to <code>trace</code>
+     * started and finished by the caller.
+     */
+    <T extends PostalRequest> CompletableFuture<UavPostalValidationResult> validateAsync(ValidationContext validationContext, T postalRequest, Trace trace);
+
+    /**
+     * Validates a list of addresses. Equal requests are validated once, results are returned in the order of
+     * <code>postalRequests</code> and a failure of one address is reported in its item only.
+     */
+    List<UavPostalBatchValidationItem> validateAll(ValidationContext validationContext, List<? extends PostalRequest> postalRequests);
+
+    /**
+     * Same as {@link #validateAll(ValidationContext, List)}, but does not block the calling thread.
+     */
+    CompletableFuture<List<UavPostalBatchValidationItem>> validateAllAsync(ValidationContext validationContext,
+                                                                           List<? extends PostalRequest> postalRequests);
+
     UavPostalCachedObject lookup(ValidationContext validationContext, PostalValidationRequest postalValidationRequest);
 
+    /**
+     * Same as {@link #lookup(ValidationContext, PostalValidationRequest)}, but does not block the calling thread.
+     */
+    CompletableFuture<UavPostalCachedObject> lookupAsync(ValidationContext validationContext, PostalValidationRequest postalValidationRequest);
+
+    /**
+     * Same as {@link #lookupAsync(ValidationContext, PostalValidationRequest)}, recording the stages to <code>trace</code>
+     * started and finished by the caller.
+     */
+    CompletableFuture<UavPostalCachedObject> lookupAsync(ValidationContext validationContext, PostalValidationRequest postalValidationRequest, Trace trace);
+
     UavPostalCachedObject lookupByUid(String uid);
 
     SearchCustomAddressesResponse searchCustomByParams(Integer pageSize, Integer pageNumber, SearchAddressType searchAddressType, String country, String state, String city, String zip, String fullStreetAddress);
 
+    /**
+     * Same search as {@link #searchCustomByParams}, paged by an opaque cursor instead of a page number. Answered by
+     * the custom address index of this instance if it is enabled and built: pages are taken in UID order and are not
+     * shifted by concurrent changes, but addresses written through other instances show up only after a rebuild.
+     * Otherwise the cursor pages the cache by offset, the last page may be empty.
+     *
+     * @param cursor <code>nextCursor</code> of the previous page, <code>null</code> for the first page
+     */
+    CustomAddressCursorPage searchCustomByCursor(int pageSize, String cursor, SearchAddressType searchAddressType, String country, String state, String city, String zip, String fullStreetAddress);
+
+    /**
+     * Passes all custom addresses found by the search to <code>pageConsumer</code>, page by page, without keeping
+     * them in memory. The cache is read by offset pages, addresses added or deleted meanwhile may be skipped or repeated.
+     */
+    void streamCustomByParams(int pageSize, SearchAddressType searchAddressType, String country, String state, String city, String zip, String fullStreetAddress,
+                              Consumer<List<UavPostalCachedObject>> pageConsumer);
+
     UavPostalCachedObject deleteAddress(PostalRequest postalValidationRequest);
 
     UavPostalCachedObject deleteAddressByUID(String uid);
@@ -1,10 +1,11 @@
 package net.intermedia.uav.postal;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.log4j.Log4j2;
 import net.intermedia.uav.cache.UavCacheService;
 import net.intermedia.uav.cache.UavPostalCachedObject;
 import net.intermedia.uav.common.utils.async.UavAsyncExecutor;
-import net.intermedia.uav.common.utils.log.LoggingUtils;
 import net.intermedia.uav.context.ValidationContext;
 import net.intermedia.uav.dataprovider.PostalValidationException;
 import net.intermedia.uav.dataprovider.ProviderException;
@@ -18,6 +19,7 @@ import net.intermedia.uav.pojo.postal.SearchAddressType;
 import net.intermedia.uav.pojo.postal.SearchCustomAddressesResponse;
 import net.intermedia.uav.pojo.postal.ShippingRC;
 import net.intermedia.uav.pojo.postal.TaxRC;
+import net.intermedia.uav.postal.custom.CustomAddressIndex;
 import net.intermedia.uav.postal.e911.E911ValidationService;
 import net.intermedia.uav.postal.shipping.ShipValidationService;
 import net.intermedia.uav.postal.tax.TaxValidationService;
@@ -26,6 +28,7 @@ import net.intermedia.uav.utils.UavCorrectionsService;
 import net.intermedia.uav.utils.ValidationUtils;
 import org.apache.commons.lang3.BooleanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.AuthenticationTrustResolver;
 import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
 import org.springframework.security.core.Authentication;
@@ -34,12 +37,21 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import static net.intermedia.uav.pojo.ErrorCode.EX02;
@@ -58,6 +70,12 @@ import static net.intermedia.uav.pojo.ErrorCode.VE14;
 @Service
 public class PostalValidationServiceImpl implements PostalValidationService {
 
+    /**
+     * A validation that waited for a coalesced one and still misses data in cache (e.g. the validation ended with
+     * a fatal error and was not cached) may wait once more, after that it goes to providers on its own.
+     */
+    private static final int MAX_COALESCING_ROUNDS = 2;
+
     protected final AlarmService alarmService;
     private final MailValidationService mailValidationService;
     private final TaxValidationService taxValidationService;
@@ -70,9 +88,77 @@ public class PostalValidationServiceImpl implements PostalValidationService {
     @Autowired
     private UavCacheService uavCacheService;
 
+    @Autowired
+    private UavPostalNearCache uavPostalNearCache;
+
+    @Autowired
+    private FatalResultCache fatalResultCache;
+
+    @Autowired
+    private UavCacheWriteBehindQueue uavCacheWriteBehindQueue;
+
+    @Autowired
+    private UavCorrectionsMemo uavCorrectionsMemo;
+
+    @Autowired
+    private SubValidationRefresher subValidationRefresher;
+
+    @Autowired
+    private CustomAddressIndex customAddressIndex;
+
     @Autowired
     private UavAsyncExecutor uavAsyncExecutor;
 
+    /**
+     * Max number of distinct addresses of one batch that are validated at the same time.
+     */
+    @Value("${uav.postal.batch.parallelism:16}")
+    private int batchParallelism;
+
+    /**
+     * Whether concurrent validations of the same new address are coalesced into one provider round trip.
+     */
+    @Value("${uav.postal.coalescing.enabled:true}")
+    private boolean coalescingEnabled;
+
+    /**
+     * How long a coalesced validation waits for the one in progress before it is performed separately.
+     */
+    @Value("${uav.postal.coalescing.wait-timeout-ms:30000}")
+    private long coalescingWaitTimeoutMs;
+
+    /**
+     * Deadlines of sub-validations and of the whole request, not limited if not positive. A sub-validation that misses
+     * its deadline is reported with an error, the others are returned as is, and such a result is not cached.
+     */
+    @Value("${uav.postal.deadline.ship-ms:20000}")
+    private long shipDeadlineMs;
+
+    @Value("${uav.postal.deadline.tax-ms:20000}")
+    private long taxDeadlineMs;
+
+    @Value("${uav.postal.deadline.e911-ms:20000}")
+    private long e911DeadlineMs;
+
+    @Value("${uav.postal.deadline.request-ms:30000}")
+    private long requestBudgetMs;
+
+    @Autowired
+    private ProviderCallExecutor providerCallExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private Tracer tracer;
+
+    private final SingleFlight<Object> inFlightValidations = new SingleFlight<>();
+
+    private Counter coalescedCounter;
+
     private final AuthenticationTrustResolver authenticationTrustResolver;
 
     @Autowired
@@ -89,161 +175,374 @@ public class PostalValidationServiceImpl implements PostalValidationService {
         this.authenticationTrustResolver = new AuthenticationTrustResolverImpl();
     }
 
+    @PostConstruct
+    void initMetrics() {
+        coalescedCounter = meterRegistry.counter("uav.postal.validate.coalesced");
+        meterRegistry.gauge("uav.postal.validate.in.flight", inFlightValidations, SingleFlight::size);
+    }
+
     public <T extends PostalRequest> UavPostalValidationResult validate(ValidationContext validationContext, T postalRequest) {
+        return join(validateAsync(validationContext, postalRequest));
+    }
 
-        UavPostalCachedObject uavPostalCachedObject = uavCacheService.getUavPostalCachedObject(postalRequest);
+    @Override
+    public <T extends PostalRequest> CompletableFuture<UavPostalValidationResult> validateAsync(ValidationContext validationContext, T postalRequest) {
+        Trace trace = tracer.start("validate", validationContext);
+        return validateAsync(validationContext, postalRequest, trace).whenComplete((result, e) -> trace.finish());
+    }
+
+    @Override
+    public <T extends PostalRequest> CompletableFuture<UavPostalValidationResult> validateAsync(ValidationContext validationContext, T postalRequest,
+                                                                                                Trace trace) {
+        // security context is bound to the calling thread, so it and the source of a new cache entry are taken before going async
+        return validateAsync(validationContext, postalRequest, SecurityContextHolder.getContext(), resolveSource(validationContext), trace);
+    }
+
+    private <T extends PostalRequest> CompletableFuture<UavPostalValidationResult> validateAsync(ValidationContext validationContext, T postalRequest,
+                                                                                                 SecurityContext securityContext, String source,
+                                                                                                 Trace trace) {
+        PipelineContext pipelineContext = new PipelineContext(validationContext, securityContext, source, requestBudgetMs, trace);
+        return validateAsync(pipelineContext, postalRequest).thenApply(ValidationOutcome::getResult);
+    }
+
+    private <T extends PostalRequest> CompletableFuture<ValidationOutcome> validateAsync(PipelineContext pipelineContext, T postalRequest) {
+        ValidationContext validationContext = pipelineContext.getValidationContext();
+        UavPostalValidationResult fatalResult = fatalResultCache.get(postalRequest,
+                validationContext != null ? validationContext.getClientName() : null);
+        if (fatalResult != null) {
+            return CompletableFuture.completedFuture(new ValidationOutcome(fatalResult, null));
+        }
+        return coalescedValidation(pipelineContext, postalRequest, 1);
+    }
+
+    private <T extends PostalRequest> CompletableFuture<ValidationOutcome> coalescedValidation(PipelineContext pipelineContext, T postalRequest,
+                                                                                               int round) {
+        return supplyAsync(() -> readCachedObject(pipelineContext, postalRequest), pipelineContext)
+                .thenCompose(uavPostalCachedObject -> {
+                    if (!coalescingEnabled || round > MAX_COALESCING_ROUNDS || !requiresProviders(postalRequest, uavPostalCachedObject)) {
+                        return validateAsync(pipelineContext, postalRequest, uavPostalCachedObject);
+                    }
+
+                    // only one validation per cache entry goes to providers, concurrent ones wait for it and read its result from cache
+                    SingleFlight<Object>.Flight flight = inFlightValidations.join(flightKey(postalRequest, uavPostalCachedObject));
+                    if (flight.isLeader()) {
+                        CompletableFuture<ValidationOutcome> validation;
+                        try {
+                            validation = validateAsync(pipelineContext, postalRequest, uavPostalCachedObject);
+                        } catch (RuntimeException e) {
+                            flight.land();
+                            throw e;
+                        }
+                        return validation.whenComplete((result, e) -> flight.land());
+                    }
+
+                    coalescedCounter.increment();
+                    return FutureTimeouts.completeOnTimeout(flight.landing().thenApply(landing -> true), () -> false,
+                            coalescingWaitTimeoutMs, TimeUnit.MILLISECONDS, this::handOff)
+                            .thenCompose(landed -> {
+                                if (landed) {
+                                    // the entry read before the landing is outdated now
+                                    pipelineContext.forget(postalRequest);
+                                    return coalescedValidation(pipelineContext, postalRequest, round + 1);
+                                }
+                                log.warn("Validation of the same address is still in progress after " + coalescingWaitTimeoutMs + "ms, validating " + postalRequest + " separately");
+                                return validateAsync(pipelineContext, postalRequest, uavPostalCachedObject);
+                            });
+                });
+    }
+
+    private UavPostalCachedObject readCachedObject(PipelineContext pipelineContext, PostalRequest postalRequest) {
+        long started = System.nanoTime();
+        UavPostalCachedObject uavPostalCachedObject = pipelineContext.read(postalRequest, this::readCachedObject);
+        PipelineMetrics.CacheOutcome cacheOutcome = uavPostalCachedObject.getPostalValidationResult() == null ?
+                PipelineMetrics.CacheOutcome.MISS : isRevalidationRequired(postalRequest, uavPostalCachedObject) ?
+                PipelineMetrics.CacheOutcome.UPGRADE : PipelineMetrics.CacheOutcome.HIT;
+        pipelineContext.setMetrics(pipelineMetrics.scope(postalRequest, pipelineContext.getValidationContext(), cacheOutcome));
+        pipelineContext.stageCompleted(PipelineMetrics.Stage.CACHE_READ, started);
+        return uavPostalCachedObject;
+    }
+
+    private <T extends PostalRequest> CompletableFuture<ValidationOutcome> validateAsync(PipelineContext pipelineContext, T postalRequest,
+                                                                                         UavPostalCachedObject uavPostalCachedObject) {
+        ValidationContext validationContext = pipelineContext.getValidationContext();
 
-        UavPostalValidationResult result = uavPostalCachedObject.getPostalValidationResult();
         Boolean checkE911 = postalRequest.getCheckE911();
         Boolean checkTax = postalRequest.getCheckTax();
         Boolean checkShip = postalRequest.getCheckShip();
-        boolean updateInCacheAfterRevalidate = ((BooleanUtils.isTrue(checkE911) && !uavPostalCachedObject.hasE911Validation())
-                || (BooleanUtils.isTrue(checkTax) && !uavPostalCachedObject.hasTaxValidation())
-                || (BooleanUtils.isTrue(checkShip) && !uavPostalCachedObject.hasShippingValidation()));
-        boolean isAlreadyExistInCache = false;
-        if (result == null) {
-            // first of all lets get an mail validation result, as this is necessary for any type of validation
-            result = mailValidationService.validateAddress(validationContext, uavPostalCachedObject, postalRequest);
-        } else {
-            isAlreadyExistInCache = true;
-
-            /*
-             * SPBVBO-3604: created for related bug to avoid problem on production.
-             * Should be deleted after problem solving.
-             */
-            uavCorrectionsService.actualizeTaxValidation(uavPostalCachedObject);
-            /*
-            SPBVBO-3633 we need to return actual corrections, not saved ones,
-            because different non-normalized keys can lead to same normalized entry in cache.
-            In this case corrections could be confusing for a client-side.
-            */
-            uavCorrectionsService.checkTypos(postalRequest.getAddressLine1(), postalRequest.getAddressLine2(),
-                    postalRequest.getAddressLine3(), postalRequest.getCity(), postalRequest.getZip(),
-                    postalRequest.getState(), result.getAddressLine1(), result.getAddressLine2(), result.getAddressLine3(),
-                    result.getCity(), result.getZip(), result.getState(), result);
-            uavCorrectionsService.invalidateDuplicateCorrections(result);
-        }
+        boolean updateInCacheAfterRevalidate = isRevalidationRequired(postalRequest, uavPostalCachedObject);
+        boolean isAlreadyExistInCache = uavPostalCachedObject.getPostalValidationResult() != null;
+        // results already in the cache are reused, only the missing ones are requested from providers
+        boolean runShip = BooleanUtils.isTrue(checkShip) && !(isAlreadyExistInCache && uavPostalCachedObject.hasShippingValidation());
+        boolean runTax = BooleanUtils.isTrue(checkTax) && !(isAlreadyExistInCache && uavPostalCachedObject.hasTaxValidation());
+        boolean runE911 = BooleanUtils.isTrue(checkE911) && !(isAlreadyExistInCache && uavPostalCachedObject.hasE911Validation());
+        Set<ValidationProvider> performed = providers(runShip, runTax, runE911);
+        Set<ValidationProvider> served = providers(BooleanUtils.isTrue(checkShip) && !runShip,
+                BooleanUtils.isTrue(checkTax) && !runTax, BooleanUtils.isTrue(checkE911) && !runE911);
+
+        CompletableFuture<UavPostalValidationResult> mailValidation = isAlreadyExistInCache ?
+                CompletableFuture.completedFuture(uavPostalCachedObject.getPostalValidationResult()) :
+                // first of all lets get an mail validation result, as this is necessary for any type of validation
+                supplyAsync(() -> pipelineContext.stage(PipelineMetrics.Stage.MAIL,
+                        () -> mailValidationService.validateAddress(validationContext, uavPostalCachedObject, postalRequest)), pipelineContext);
+
+        return mailValidation.thenCompose(result -> {
+            if (isAlreadyExistInCache) {
+                subValidationRefresher.onServed(uavPostalCachedObject, served);
+                /*
+                SPBVBO-3633 we need to return actual corrections, not saved ones,
+                because different non-normalized keys can lead to same normalized entry in cache.
+                In this case corrections could be confusing for a client-side.
+                */
+                long correctionsStarted = System.nanoTime();
+                result = uavCorrectionsMemo.correct(postalRequest, uavPostalCachedObject, cachedObject -> correct(uavCorrectionsService,
+                        postalRequest, cachedObject, !subValidationRefresher.refreshIfStale(cachedObject.getUid(), ValidationProvider.TAX)));
+                pipelineContext.stageCompleted(PipelineMetrics.Stage.CORRECTIONS, correctionsStarted);
+            }
 
-        // make sure, we have a proper mailing validation result
-        if (result == null || result.getPostalRC() == null || result.getPostalRC().getPostalValid() == null || result.getSyntaxValid() == null) {
-            throw new PostalValidationException("Mailing validation result should not be null and " +
-                    "both isPostalValid and syntaxValid should be defined. However, we got the following mailing validation result: " + result);
-        }
+            // make sure, we have a proper mailing validation result
+            if (result == null || result.getPostalRC() == null || result.getPostalRC().getPostalValid() == null || result.getSyntaxValid() == null) {
+                throw new PostalValidationException("Mailing validation result should not be null and " +
+                        "both isPostalValid and syntaxValid should be defined. However, we got the following mailing validation result: " + result);
+            }
 
-        result.setChanged(anyCorrectionsMade(result.getPostalRC()));
+            result.setChanged(anyCorrectionsMade(result.getPostalRC()));
 
-        // check if we cannot continue the validation
-        if (containsFatalError(result.getPostalRC())) {
-            return result;
-        }
+            // check if we cannot continue the validation
+            if (containsFatalError(result.getPostalRC())) {
+                pipelineMetrics.fatal(postalRequest, validationContext);
+                if (!isAlreadyExistInCache) {
+                    fatalResultCache.put(postalRequest, result);
+                }
+                return CompletableFuture.completedFuture(new ValidationOutcome(result, uavPostalCachedObject));
+            }
 
-        result.setPostalValidationOutputLanguage(postalRequest.getOutputLanguage());
+            result.setPostalValidationOutputLanguage(postalRequest.getOutputLanguage());
 
-        UavPostalValidationResult finalResult = result;
+            UavPostalValidationResult finalResult = result;
 
-        CompletableFuture<UavPostalValidationResult> completableFuture = CompletableFuture.completedFuture(finalResult);
+            CompletableFuture<UavPostalValidationResult> completableFuture = CompletableFuture.completedFuture(finalResult);
 
-        if (BooleanUtils.isTrue(checkShip)) {
-            completableFuture = executeAsync(() -> shipValidationService.validate(finalResult, uavPostalCachedObject),
-                    validationContext, completableFuture,
-                    (res, error) -> {
-                        ShippingRC rc = finalResult.getShippingRC();
-                        if (rc == null) {
-                            rc = new ShippingRC();
-                        }
+            if (runShip) {
+                completableFuture = executeAsync(() -> shipValidationService.validate(finalResult, uavPostalCachedObject),
+                        pipelineContext, ValidationProvider.SHIP, shipDeadlineMs, completableFuture,
+                        (res, error) -> {
+                            ShippingRC rc = finalResult.getShippingRC();
+                            if (rc == null) {
+                                rc = new ShippingRC();
+                            }
 
-                        error.setErrorCode(EX05);
-                        rc.addError(error);
-                        rc.setShippingValid(false);
-                        res.setShippingRC(rc);
-                    });
-        }
+                            error.setErrorCode(EX05);
+                            rc.addError(error);
+                            rc.setShippingValid(false);
+                            res.setShippingRC(rc);
+                        });
+            }
 
-        if (BooleanUtils.isTrue(checkTax)) {
-            // Only if the addresses syntactically correct tax validation is done.
-            BiConsumer<UavPostalValidationResult, ValidationError> taxErrorSetter = (res, error) -> {
-                TaxRC rc = res.getTaxRC();
-                if (rc == null) {
-                    rc = new TaxRC();
-                }
+            if (runTax) {
+                // Only if the addresses syntactically correct tax validation is done.
+                BiConsumer<UavPostalValidationResult, ValidationError> taxErrorSetter = (res, error) -> {
+                    TaxRC rc = res.getTaxRC();
+                    if (rc == null) {
+                        rc = new TaxRC();
+                    }
 
-                error.setErrorCode(EX02);
-                rc.addError(error);
-                rc.setTaxValid(false);
-                res.setTaxRC(rc);
-            };
+                    error.setErrorCode(EX02);
+                    rc.addError(error);
+                    rc.setTaxValid(false);
+                    res.setTaxRC(rc);
+                };
 
-            completableFuture = executeAsync(() -> taxValidationService.validate(finalResult, uavPostalCachedObject),
-                    validationContext, completableFuture, taxErrorSetter);
-        }
+                completableFuture = executeAsync(() -> taxValidationService.validate(finalResult, uavPostalCachedObject),
+                        pipelineContext, ValidationProvider.TAX, taxDeadlineMs, completableFuture, taxErrorSetter);
+            }
 
-        if (BooleanUtils.isTrue(checkE911)) {
-            BiConsumer<UavPostalValidationResult, ValidationError> e911ErrorSetter = (res, error) -> {
-                E911RC rc = res.getE911RC();
-                if (rc == null) {
-                    rc = new E911RC();
+            if (runE911) {
+                BiConsumer<UavPostalValidationResult, ValidationError> e911ErrorSetter = (res, error) -> {
+                    E911RC rc = res.getE911RC();
+                    if (rc == null) {
+                        rc = new E911RC();
+                    }
+
+                    error.setErrorCode(EX03);
+                    rc.addError(error);
+                    rc.setE911Valid(false);
+                    res.setE911RC(rc);
+                };
+
+                completableFuture = executeAsync(() -> e911ValidationService.validate(finalResult, uavPostalCachedObject),
+                        pipelineContext, ValidationProvider.E911, e911DeadlineMs, completableFuture, e911ErrorSetter);
+            }
+
+            if (isAlreadyExistInCache && !updateInCacheAfterRevalidate) {
+                return completableFuture.thenApply(uavPostalValidationResult -> new ValidationOutcome(uavPostalValidationResult, uavPostalCachedObject));
+            }
+            return completableFuture.thenCompose(uavPostalValidationResult -> {
+                if (pipelineContext.isPartial()) {
+                    // a partial result must not be taken for a complete one by next requests
+                    log.warn("The address " + postalRequest + " was not added to the cache because some validations timed out");
+                    return CompletableFuture.completedFuture(new ValidationOutcome(uavPostalValidationResult, uavPostalCachedObject));
                 }
+                return supplyAsync(() -> pipelineContext.stage(PipelineMetrics.Stage.CACHE_UPDATE,
+                        () -> updateCache(pipelineContext, postalRequest, uavPostalCachedObject, uavPostalValidationResult)), pipelineContext)
+                        .thenApply(outcome -> {
+                            subValidationRefresher.recordValidated(outcome.getCachedObject().getUid(), performed);
+                            return outcome;
+                        });
+            });
+        });
+    }
+
+    private ValidationOutcome updateCache(PipelineContext pipelineContext, PostalRequest postalRequest, UavPostalCachedObject uavPostalCachedObject,
+                                          UavPostalValidationResult uavPostalValidationResult) {
+        if (CollectionUtils.isEmpty(uavPostalValidationResult.getResults())) {
+            log.warn("The address " + postalRequest + " was not added to the cache because the mappings are empty");
+            return new ValidationOutcome(uavPostalValidationResult, uavPostalCachedObject);
+        }
+
+        uavPostalCachedObject.setPostalValidationResult(uavPostalValidationResult);
+        uavPostalCachedObject.setIsCustomAddress(uavPostalValidationResult.getIsCustom());
+        uavPostalCachedObject.setPostalValidationResultUpdated(true);
+        uavPostalCachedObject.setSource(pipelineContext.getSource());
+        // a custom address may be found only by the synchronous write, so such results are written right away
+        if (!pipelineContext.isCachedObjectRequired() && !BooleanUtils.isTrue(uavPostalValidationResult.getIsCustom())
+                && uavCacheWriteBehindQueue.offer(uavPostalCachedObject)) {
+            pipelineContext.remember(postalRequest, uavPostalCachedObject);
+            return new ValidationOutcome(uavPostalValidationResult, uavPostalCachedObject);
+        }
+        UavPostalCachedObject updatedUavPostalCachedObject = uavCacheService.updateUavPostalCachedObject(uavPostalCachedObject);
+        uavPostalNearCache.invalidate(uavPostalCachedObject);
+        uavPostalNearCache.invalidate(updatedUavPostalCachedObject);
+        if (updatedUavPostalCachedObject == null) {
+            updatedUavPostalCachedObject = uavPostalCachedObject;
+        }
+        pipelineContext.remember(postalRequest, updatedUavPostalCachedObject);
+        if (BooleanUtils.isTrue(updatedUavPostalCachedObject.getIsCustomAddress())) {
+            customAddressIndex.update(updatedUavPostalCachedObject);
+        }
+        //if after update we found that there's custom address, we map all keys to that custom and
+        //we need to return validation result from that custom.
+        if (BooleanUtils.isTrue(updatedUavPostalCachedObject.getIsCustomAddress())) {
+            return new ValidationOutcome(updatedUavPostalCachedObject.getPostalValidationResult(), updatedUavPostalCachedObject);
+        }
+        return new ValidationOutcome(uavPostalValidationResult, updatedUavPostalCachedObject);
+    }
 
-                error.setErrorCode(EX03);
-                rc.addError(error);
-                rc.setE911Valid(false);
-                res.setE911RC(rc);
-            };
+    /**
+     * Reads the entry the request is resolved to, taking into account writes not flushed to the cache yet.
+     */
+    private UavPostalCachedObject readCachedObject(PostalRequest postalRequest) {
+        return uavCacheWriteBehindQueue.pending(uavPostalNearCache.get(postalRequest, uavCacheService::getUavPostalCachedObject));
+    }
 
-            completableFuture = executeAsync(() -> e911ValidationService.validate(finalResult, uavPostalCachedObject),
-                    validationContext, completableFuture, e911ErrorSetter);
+    private String resolveSource(ValidationContext validationContext) {
+        SecurityContext context = SecurityContextHolder.getContext();
+        Authentication authentication = context.getAuthentication();
+        if (authentication != null && !authenticationTrustResolver.isAnonymous(authentication)) {
+            return authentication.getName();
         }
+        return validationContext != null ? validationContext.getClientName() : null;
+    }
 
-        try {
+    @Override
+    public List<UavPostalBatchValidationItem> validateAll(ValidationContext validationContext, List<? extends PostalRequest> postalRequests) {
+        return join(validateAllAsync(validationContext, postalRequests));
+    }
 
-            UavPostalValidationResult uavPostalValidationResult = (completableFuture == null) ? finalResult : completableFuture.get();
+    @Override
+    public CompletableFuture<List<UavPostalBatchValidationItem>> validateAllAsync(ValidationContext validationContext,
+                                                                                   List<? extends PostalRequest> postalRequests) {
+        // equal requests are validated once: the cache is read once per distinct key and providers are called once per miss
+        Map<List<Object>, List<Integer>> positionsByKey = new LinkedHashMap<>();
+        for (int i = 0; i < postalRequests.size(); i++) {
+            PostalRequest postalRequest = postalRequests.get(i);
+            List<Object> key = Arrays.asList(PostalRequestKey.of(postalRequest), postalRequest.getCheckE911(),
+                    postalRequest.getCheckTax(), postalRequest.getCheckShip(), postalRequest.getOutputLanguage());
+            positionsByKey.computeIfAbsent(key, k -> new ArrayList<>(1)).add(i);
+        }
 
-            if (!isAlreadyExistInCache || updateInCacheAfterRevalidate) {
-                if (!CollectionUtils.isEmpty(uavPostalValidationResult.getResults())) {
-                    uavPostalCachedObject.setPostalValidationResult(uavPostalValidationResult);
-                    uavPostalCachedObject.setIsCustomAddress(uavPostalValidationResult.getIsCustom());
-                    uavPostalCachedObject.setPostalValidationResultUpdated(true);
+        BatchValidation batch = new BatchValidation(validationContext, SecurityContextHolder.getContext(), resolveSource(validationContext), postalRequests,
+                new ArrayList<>(positionsByKey.values()));
+        // at most batchParallelism addresses are validated at a time, each lane starts the next one when its address is done
+        CompletableFuture<?>[] lanes = new CompletableFuture[Math.min(batchParallelism, batch.groups.size())];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = validateRemaining(batch);
+        }
+        return CompletableFuture.allOf(lanes).thenApply(v -> Arrays.asList(batch.items));
+    }
 
-                    SecurityContext context = SecurityContextHolder.getContext();
-                    Authentication authentication = context.getAuthentication();
-                    if (authentication != null && !authenticationTrustResolver.isAnonymous(authentication)) {
-                        uavPostalCachedObject.setSource(authentication.getName());
-                    } else {
-                        uavPostalCachedObject.setSource(validationContext.getClientName());
-                    }
-                    UavPostalCachedObject updatedUavPostalCachedObject = uavCacheService.updateUavPostalCachedObject(uavPostalCachedObject);
-                    //if after update we found that there's custom address, we map all keys to that custom and
-                    //we need to return validation result from that custom.
-                    if (updatedUavPostalCachedObject != null && BooleanUtils.isTrue(updatedUavPostalCachedObject.getIsCustomAddress())) {
-                        uavPostalValidationResult = updatedUavPostalCachedObject.getPostalValidationResult();
-                    }
-                } else {
-                    log.warn("The address " + postalRequest + " was not added to the cache because the mappings are empty");
-                }
+    /**
+     * Validates the addresses of the batch nobody has taken yet, one at a time, without blocking: a validation not
+     * completed right away continues the lane when it completes.
+     */
+    private CompletableFuture<Void> validateRemaining(BatchValidation batch) {
+        while (true) {
+            int group = batch.next.getAndIncrement();
+            if (group >= batch.groups.size()) {
+                return CompletableFuture.completedFuture(null);
             }
-
-            return uavPostalValidationResult;
-        } catch (InterruptedException | ExecutionException e) {
-            log.error(e.getMessage());
-            if (e.getCause() instanceof ProviderException) {
-                throw (ProviderException) e.getCause();
+            CompletableFuture<Void> validation = validateGroup(batch, batch.groups.get(group));
+            if (!validation.isDone()) {
+                return validation.thenCompose(v -> validateRemaining(batch));
             }
-            throw new PostalValidationException(e);
         }
     }
 
+    private CompletableFuture<Void> validateGroup(BatchValidation batch, List<Integer> positions) {
+        PostalRequest postalRequest = batch.postalRequests.get(positions.get(0));
+        CompletableFuture<UavPostalValidationResult> validation;
+        Trace trace = tracer.start("validate", batch.validationContext);
+        try {
+            validation = validateAsync(batch.validationContext, postalRequest, batch.securityContext, batch.source, trace);
+        } catch (RuntimeException e) {
+            validation = new CompletableFuture<>();
+            validation.completeExceptionally(e);
+        }
+        return validation.handle((result, e) -> {
+            trace.finish();
+            UavPostalBatchValidationItem item;
+            if (e == null) {
+                item = UavPostalBatchValidationItem.succeeded(result);
+            } else {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                log.error("Batch validation of " + postalRequest + " failed: " + cause.getMessage());
+                item = UavPostalBatchValidationItem.failed(cause.getMessage());
+            }
+            positions.forEach(position -> batch.items[position] = item);
+            return null;
+        });
+    }
+
     @Override
     public UavPostalCachedObject lookup(ValidationContext validationContext, PostalValidationRequest postalValidationRequest) {
-        validate(validationContext, postalValidationRequest);
-        UavPostalCachedObject uavPostalCachedObject = uavCacheService.getUavPostalCachedObject(postalValidationRequest);
-        if (BooleanUtils.isTrue(uavPostalCachedObject.getIsCustomAddress()))
-            addResultCodeToCustomAddress(uavPostalCachedObject);
-        return uavPostalCachedObject;
+        return join(lookupAsync(validationContext, postalValidationRequest));
+    }
+
+    @Override
+    public CompletableFuture<UavPostalCachedObject> lookupAsync(ValidationContext validationContext, PostalValidationRequest postalValidationRequest) {
+        Trace trace = tracer.start("lookup", validationContext);
+        return lookupAsync(validationContext, postalValidationRequest, trace).whenComplete((result, e) -> trace.finish());
+    }
+
+    @Override
+    public CompletableFuture<UavPostalCachedObject> lookupAsync(ValidationContext validationContext, PostalValidationRequest postalValidationRequest,
+                                                                Trace trace) {
+        PipelineContext pipelineContext = new PipelineContext(validationContext, SecurityContextHolder.getContext(),
+                resolveSource(validationContext), requestBudgetMs, trace);
+        pipelineContext.requireCachedObject();
+        // the entry the validation ended with is returned as is, the cache is read again only if it was not accessed at all
+        return validateAsync(pipelineContext, postalValidationRequest).thenCompose(outcome -> outcome.getCachedObject() != null ?
+                CompletableFuture.completedFuture(outcome.getCachedObject()) :
+                supplyAsync(() -> pipelineContext.read(postalValidationRequest, this::readCachedObject), pipelineContext))
+                .thenApply(uavPostalCachedObject -> {
+                    if (BooleanUtils.isTrue(uavPostalCachedObject.getIsCustomAddress()))
+                        addResultCodeToCustomAddress(uavPostalCachedObject);
+                    return uavPostalCachedObject;
+                });
     }
 
     @Override
     public UavPostalCachedObject lookupByUid(String uid) {
-        UavPostalCachedObject uavPostalCachedObjectByUid = uavCacheService.getUavPostalCachedObjectByUid(uid);
+        UavPostalCachedObject uavPostalCachedObjectByUid = uavPostalNearCache.getByUid(uid, uavCacheService::getUavPostalCachedObjectByUid);
         if (BooleanUtils.isTrue(uavPostalCachedObjectByUid.getIsCustomAddress()))
             addResultCodeToCustomAddress(uavPostalCachedObjectByUid);
         return uavPostalCachedObjectByUid;
@@ -257,35 +556,205 @@ public class PostalValidationServiceImpl implements PostalValidationService {
         return response;
     }
 
+    @Override
+    public CustomAddressCursorPage searchCustomByCursor(int pageSize, String cursor, SearchAddressType searchAddressType, String country, String state, String city, String zip, String fullStreetAddress) {
+        CustomAddressCursor after = CustomAddressCursor.decode(cursor);
+        if (after.isCachePage() || (after.isFirst() && !customAddressIndex.supports(searchAddressType))) {
+            return searchCustomByCachePage(pageSize, after, searchAddressType, country, state, city, zip, fullStreetAddress);
+        }
+        if (!customAddressIndex.supports(searchAddressType)) {
+            throw new IllegalStateException("Cursor was issued by the custom address index, which is not built on this instance, " +
+                    "start the search over");
+        }
+        // one more address than the page shows whether there is a next page
+        List<UavPostalCachedObject> result = customAddressIndex.search(country, state, city, zip, fullStreetAddress,
+                after.getLastUid(), 0, pageSize + 1);
+        boolean hasMore = result.size() > pageSize;
+        if (hasMore) {
+            result = new ArrayList<>(result.subList(0, pageSize));
+        }
+        result.forEach(this::addResultCodeToCustomAddress);
+        String nextCursor = hasMore ? CustomAddressCursor.afterUid(result.get(result.size() - 1).getUid()).encode() : null;
+        return new CustomAddressCursorPage(result, nextCursor);
+    }
+
+    /**
+     * Page of the search answered by the cache, while the index is disabled, not built yet or does not cover the search.
+     * The cache is paged by offset: pages may skip or repeat addresses added or deleted in between.
+     */
+    private CustomAddressCursorPage searchCustomByCachePage(int pageSize, CustomAddressCursor after, SearchAddressType searchAddressType,
+                                                            String country, String state, String city, String zip, String fullStreetAddress) {
+        if (after.isCachePage() && after.getPageSize() != pageSize) {
+            throw new IllegalStateException("pageSize must be " + after.getPageSize() + " for this cursor");
+        }
+        int pageNumber = after.isCachePage() ? after.getPageNumber() : 0;
+        List<UavPostalCachedObject> result = searchCustomByParams(pageSize, pageNumber, searchAddressType, country, state, city, zip, fullStreetAddress).getResult();
+        String nextCursor = result.size() < pageSize ? null : CustomAddressCursor.cachePage(pageNumber + 1, pageSize).encode();
+        return new CustomAddressCursorPage(result, nextCursor);
+    }
+
+    @Override
+    public void streamCustomByParams(int pageSize, SearchAddressType searchAddressType, String country, String state, String city, String zip, String fullStreetAddress,
+                                     Consumer<List<UavPostalCachedObject>> pageConsumer) {
+        // the export reads the cache, the index of this instance may miss writes of the others
+        for (int pageNumber = 0; ; pageNumber++) {
+            List<UavPostalCachedObject> page = searchCustomByParams(pageSize, pageNumber, searchAddressType, country, state, city, zip, fullStreetAddress).getResult();
+            if (!page.isEmpty()) {
+                pageConsumer.accept(page);
+            }
+            if (page.size() < pageSize) {
+                return;
+            }
+        }
+    }
+
     @Override
     public UavPostalCachedObject deleteAddress(PostalRequest postalRequest) {
         UavPostalCachedObject uavPostalCachedObject = uavCacheService.getUavPostalCachedObject(postalRequest);
+        uavCacheWriteBehindQueue.discard(uavPostalCachedObject.getUid());
         uavCacheService.deleteUavPostalCachedObject(uavPostalCachedObject);
+        uavPostalNearCache.invalidate(uavPostalCachedObject);
+        customAddressIndex.remove(uavPostalCachedObject.getUid());
         return uavPostalCachedObject;
     }
 
     @Override
     public UavPostalCachedObject deleteAddressByUID(String uid) {
-        return uavCacheService.deleteAddressByUID(uid);
+        uavCacheWriteBehindQueue.discard(uid);
+        UavPostalCachedObject deletedUavPostalCachedObject = uavCacheService.deleteAddressByUID(uid);
+        uavPostalNearCache.invalidate(uid);
+        customAddressIndex.remove(uid);
+        return deletedUavPostalCachedObject;
     }
 
 
     private CompletableFuture<UavPostalValidationResult> executeAsync(Supplier<UavPostalValidationResult> supplier,
-                                                                      ValidationContext context,
+                                                                      PipelineContext pipelineContext,
+                                                                      ValidationProvider provider,
+                                                                      long deadlineMs,
                                                                       CompletableFuture<UavPostalValidationResult> result,
                                                                       BiConsumer<UavPostalValidationResult, ValidationError> errorSetter) {
-        CompletableFuture<UavPostalValidationResult> task = uavAsyncExecutor.supplyAsync(
-                new ExecutionWrapper(supplier, context, errorSetter, alarmService));
+        Supplier<UavPostalValidationResult> timedSupplier = () -> pipelineContext.stage(PipelineMetrics.Stage.of(provider), supplier);
+        CompletableFuture<UavPostalValidationResult> task = providerCallExecutor.supplyAsync(provider,
+                pipelineContext.bind(new ExecutionWrapper(timedSupplier, errorSetter, alarmService,
+                        () -> pipelineMetrics.alarmSent(provider))))
+                .exceptionally(e -> notPerformed(pipelineContext, provider, e, errorSetter));
+        long timeoutMs = pipelineContext.timeoutMillis(deadlineMs);
+        if (timeoutMs != PipelineContext.NO_TIMEOUT) {
+            // a provider call cannot be cancelled: on timeout its result is replaced by an error and dropped when it comes
+            task = FutureTimeouts.completeOnTimeout(task,
+                    pipelineContext.bind(() -> timedOut(pipelineContext, provider, timeoutMs, errorSetter)),
+                    timeoutMs, TimeUnit.MILLISECONDS, this::handOff);
+        }
         return (result == null) ?
                 task :
                 result.thenCombine(
                         task,
                         (r1, r2) -> {
+                            long started = System.nanoTime();
                             ValidationUtils.merge(r1, r2);
+                            pipelineContext.stageCompleted(PipelineMetrics.Stage.MERGE, started);
                             return r1;
                         });
     }
 
+    /**
+     * Corrections of a cached object served to the request.
+     *
+     * @param actualizeTax whether tax of the entry is not taken care of by the background refresh
+     */
+    static void correct(UavCorrectionsService uavCorrectionsService, PostalRequest postalRequest, UavPostalCachedObject cachedObject,
+                        boolean actualizeTax) {
+        /*
+         * SPBVBO-3604: created for related bug to avoid problem on production.
+         * Should be deleted after problem solving. Not needed if the background refresh validated tax of the entry
+         * within its refresh interval or is about to refresh it.
+         */
+        if (actualizeTax) {
+            uavCorrectionsService.actualizeTaxValidation(cachedObject);
+        }
+        UavPostalValidationResult cachedResult = cachedObject.getPostalValidationResult();
+        uavCorrectionsService.checkTypos(postalRequest.getAddressLine1(), postalRequest.getAddressLine2(),
+                postalRequest.getAddressLine3(), postalRequest.getCity(), postalRequest.getZip(),
+                postalRequest.getState(), cachedResult.getAddressLine1(), cachedResult.getAddressLine2(), cachedResult.getAddressLine3(),
+                cachedResult.getCity(), cachedResult.getZip(), cachedResult.getState(), cachedResult);
+        uavCorrectionsService.invalidateDuplicateCorrections(cachedResult);
+    }
+
+    private UavPostalValidationResult timedOut(PipelineContext pipelineContext, ValidationProvider provider, long timeoutMs,
+                                               BiConsumer<UavPostalValidationResult, ValidationError> errorSetter) {
+        log.warn(provider.getDisplayName() + " validation did not complete in " + timeoutMs + "ms, responding without it");
+        return notPerformedResult(pipelineContext, provider.getDisplayName() + " validation timed out after " + timeoutMs + "ms", errorSetter);
+    }
+
+    private UavPostalValidationResult notPerformed(PipelineContext pipelineContext, ValidationProvider provider, Throwable e,
+                                                   BiConsumer<UavPostalValidationResult, ValidationError> errorSetter) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        log.warn(provider.getDisplayName() + " validation was not performed: " + cause.getMessage());
+        return notPerformedResult(pipelineContext, cause.getMessage(), errorSetter);
+    }
+
+    private UavPostalValidationResult notPerformedResult(PipelineContext pipelineContext, String errorDescription,
+                                                         BiConsumer<UavPostalValidationResult, ValidationError> errorSetter) {
+        pipelineContext.markPartial();
+        ValidationError validationError = new ValidationError();
+        validationError.setErrorDescription(errorDescription);
+        UavPostalValidationResult result = new UavPostalValidationResult();
+        errorSetter.accept(result, validationError);
+        return result;
+    }
+
+    /**
+     * Executes a blocking call in a pool thread, so that the pipeline never blocks the calling thread.
+     */
+    private <U> CompletableFuture<U> supplyAsync(Supplier<U> supplier, PipelineContext pipelineContext) {
+        return uavAsyncExecutor.supplyAsync(pipelineContext.bind(supplier));
+    }
+
+    /**
+     * Runs a completion of a timed out future in a pool thread, so that the stages depending on it do not hold the timer.
+     */
+    private void handOff(Runnable completion) {
+        uavAsyncExecutor.supplyAsync(() -> {
+            completion.run();
+            return null;
+        });
+    }
+
+    private static <U> U join(CompletableFuture<U> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            log.error(e.getMessage());
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PostalValidationException(e);
+        }
+    }
+
+    private boolean isRevalidationRequired(PostalRequest postalRequest, UavPostalCachedObject uavPostalCachedObject) {
+        return (BooleanUtils.isTrue(postalRequest.getCheckE911()) && !uavPostalCachedObject.hasE911Validation())
+                || (BooleanUtils.isTrue(postalRequest.getCheckTax()) && !uavPostalCachedObject.hasTaxValidation())
+                || (BooleanUtils.isTrue(postalRequest.getCheckShip()) && !uavPostalCachedObject.hasShippingValidation());
+    }
+
+    private static Set<ValidationProvider> providers(boolean ship, boolean tax, boolean e911) {
+        Set<ValidationProvider> providers = EnumSet.noneOf(ValidationProvider.class);
+        if (ship) providers.add(ValidationProvider.SHIP);
+        if (tax) providers.add(ValidationProvider.TAX);
+        if (e911) providers.add(ValidationProvider.E911);
+        return providers;
+    }
+
+    private boolean requiresProviders(PostalRequest postalRequest, UavPostalCachedObject uavPostalCachedObject) {
+        return uavPostalCachedObject.getPostalValidationResult() == null || isRevalidationRequired(postalRequest, uavPostalCachedObject);
+    }
+
+    private Object flightKey(PostalRequest postalRequest, UavPostalCachedObject uavPostalCachedObject) {
+        return uavPostalCachedObject.getCacheKey() != null ? uavPostalCachedObject.getCacheKey() : PostalRequestKey.of(postalRequest);
+    }
+
     private boolean anyCorrectionsMade(PostalRC postalRC) {
         return postalRC.getErrors().stream()
                 .map(ValidationError::getErrorCode)
@@ -308,49 +777,59 @@ public class PostalValidationServiceImpl implements PostalValidationService {
     }
 
     /**
-     * This wrapper wraps Supplier that produces UavPostalValidationResult with setting/clearing MDC for logging.
+     * This wrapper wraps Supplier that produces UavPostalValidationResult with converting its failure to an error result.
      */
     private static class ExecutionWrapper implements Supplier<UavPostalValidationResult> {
 
         private final Supplier<UavPostalValidationResult> underlying;
-        private final UUID requestId;
-        private final String clientRequestID;
-        private final String clientName;
-        private final String clientInstance;
         private final BiConsumer<UavPostalValidationResult, ValidationError> errorSetter;
         private final AlarmService alarmService;
+        private final Runnable alarmListener;
 
-        ExecutionWrapper(Supplier<UavPostalValidationResult> underlying, ValidationContext context, BiConsumer<UavPostalValidationResult, ValidationError> errorSetter, AlarmService alarmService) {
+        ExecutionWrapper(Supplier<UavPostalValidationResult> underlying, BiConsumer<UavPostalValidationResult, ValidationError> errorSetter,
+                         AlarmService alarmService, Runnable alarmListener) {
             this.underlying = underlying;
-            this.requestId = context.getRequestId();
-            this.clientRequestID = context.getClientRequestID();
-            this.clientName = context.getClientName();
-            this.clientInstance = context.getClientInstance();
             this.errorSetter = errorSetter;
             this.alarmService = alarmService;
+            this.alarmListener = alarmListener;
         }
 
         @Override
         public UavPostalValidationResult get() {
             try {
-                LoggingUtils.putToMdc(LoggingUtils.REQUEST_ID_KEY, requestId.toString());
-                LoggingUtils.putToMdc(LoggingUtils.CLIENT_REQUEST_ID, clientRequestID);
-                LoggingUtils.putToMdc(LoggingUtils.CLIENT_NAME, clientName);
-                LoggingUtils.putToMdc(LoggingUtils.CLIENT_INSTANCE, clientInstance);
                 return underlying.get();
             } catch (Exception e) {
                 if (e instanceof ProviderException) {
                     alarmService.sendAlarm((ProviderException) e);
+                    alarmListener.run();
                 }
                 ValidationError validationError = new ValidationError();
                 validationError.setErrorDescription(e.getMessage());
                 UavPostalValidationResult result = new UavPostalValidationResult();
                 errorSetter.accept(result, validationError);
                 return result;
-            } finally {
-                // Tear down MDC, because the thread could be reused.
-                LoggingUtils.clearMdc();
             }
         }
     }
+
+    private static class BatchValidation {
+        private final ValidationContext validationContext;
+        private final SecurityContext securityContext;
+        private final String source;
+        private final List<? extends PostalRequest> postalRequests;
+        // positions of equal requests
+        private final List<List<Integer>> groups;
+        private final UavPostalBatchValidationItem[] items;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private BatchValidation(ValidationContext validationContext, SecurityContext securityContext, String source,
+                                List<? extends PostalRequest> postalRequests, List<List<Integer>> groups) {
+            this.validationContext = validationContext;
+            this.securityContext = securityContext;
+            this.source = source;
+            this.postalRequests = postalRequests;
+            this.groups = groups;
+            this.items = new UavPostalBatchValidationItem[postalRequests.size()];
+        }
+    }
 }
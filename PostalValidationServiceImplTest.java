@@ -0,0 +1,224 @@
+package net.intermedia.uav.postal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.intermedia.uav.cache.UavCacheService;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.common.utils.async.UavAsyncExecutor;
+import net.intermedia.uav.pojo.ValidationError;
+import net.intermedia.uav.pojo.postal.PostalRequest;
+import net.intermedia.uav.pojo.postal.PostalValidationRequest;
+import net.intermedia.uav.pojo.postal.PostalValidationResult;
+import net.intermedia.uav.pojo.postal.TaxRC;
+import net.intermedia.uav.postal.custom.CustomAddressIndex;
+import net.intermedia.uav.postal.e911.E911ValidationService;
+import net.intermedia.uav.postal.shipping.ShipValidationService;
+import net.intermedia.uav.postal.tax.TaxValidationService;
+import net.intermedia.uav.utils.AlarmService;
+import net.intermedia.uav.utils.UavCorrectionsService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static net.intermedia.uav.pojo.ErrorCode.EX02;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * {@link PostalValidationServiceImpl} wired as in the application, with providers and the cache replaced by stubs.
+ * The cache stub never stores writes, so every address is a miss.
+ */
+class PostalValidationServiceImplTest {
+
+    private static final long TAX_DEADLINE_MS = 200;
+
+    private final List<PostalValidationRequest> corpus = PostalBenchmarkCorpus.requests(3);
+    private final UavCacheService uavCacheService = Mockito.mock(UavCacheService.class);
+    private final MailValidationService mailValidationService = Mockito.mock(MailValidationService.class);
+    private final TaxValidationService taxValidationService = Mockito.mock(TaxValidationService.class);
+    private final CountDownLatch taxReleased = new CountDownLatch(1);
+    private final AtomicInteger uids = new AtomicInteger();
+
+    private volatile boolean taxBlocked;
+    private ExecutorService asyncPool;
+    private AnnotationConfigApplicationContext context;
+    private PostalValidationServiceImpl postalValidationService;
+
+    @BeforeEach
+    void setUp() {
+        when(uavCacheService.getUavPostalCachedObject(any(PostalRequest.class))).thenAnswer(invocation -> {
+            UavPostalCachedObject cached = new UavPostalCachedObject();
+            cached.setUid("uid-" + uids.incrementAndGet());
+            return cached;
+        });
+        when(uavCacheService.updateUavPostalCachedObject(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        when(mailValidationService.validateAddress(any(), any(), any())).thenAnswer(invocation -> {
+            PostalValidationRequest request = invocation.getArgument(2);
+            if (request.getAddressLine1().equals(corpus.get(1).getAddressLine1())) {
+                throw new IllegalStateException("Mail provider is down");
+            }
+            UavPostalValidationResult result = PostalBenchmarkCorpus.cachedObject(request, "uid").getPostalValidationResult();
+            result.setTaxRC(null);
+            result.setShippingRC(null);
+            // mappings must not be empty for the result to be cached
+            result.setResults(new TreeSet<>(EnumSet.of(PostalValidationResult.Result.AV24)));
+            return result;
+        });
+
+        when(taxValidationService.validate(any(), any())).thenAnswer(invocation -> {
+            if (taxBlocked) {
+                taxReleased.await(10, TimeUnit.SECONDS);
+            }
+            TaxRC taxRC = new TaxRC();
+            taxRC.setTaxValid(true);
+            UavPostalValidationResult result = new UavPostalValidationResult();
+            result.setTaxRC(taxRC);
+            return result;
+        });
+
+        asyncPool = Executors.newFixedThreadPool(16, new CustomizableThreadFactory("uav-async-"));
+        UavAsyncExecutor uavAsyncExecutor = Mockito.mock(UavAsyncExecutor.class);
+        when(uavAsyncExecutor.supplyAsync(any())).thenAnswer(invocation ->
+                CompletableFuture.supplyAsync(invocation.<Supplier<?>>getArgument(0), asyncPool));
+
+        Map<String, Object> properties = new HashMap<>();
+        // every read goes to the cache stub
+        properties.put("uav.postal.near-cache.enabled", false);
+        properties.put("uav.postal.async.mode", "platform");
+        properties.put("uav.postal.tracing.enabled", false);
+        properties.put("uav.postal.deadline.tax-ms", TAX_DEADLINE_MS);
+
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", properties));
+        context.registerBean(ObjectMapper.class, ObjectMapper::new);
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.registerBean(UavCacheService.class, () -> uavCacheService);
+        context.registerBean(MailValidationService.class, () -> mailValidationService);
+        context.registerBean(TaxValidationService.class, () -> taxValidationService);
+        context.registerBean(ShipValidationService.class, () -> Mockito.mock(ShipValidationService.class));
+        context.registerBean(E911ValidationService.class, () -> Mockito.mock(E911ValidationService.class));
+        context.registerBean(AlarmService.class, () -> Mockito.mock(AlarmService.class));
+        context.registerBean(UavAsyncExecutor.class, () -> uavAsyncExecutor);
+        context.registerBean(UavCorrectionsService.class, UavCorrectionsService::new);
+        context.register(PostalValidationServiceImpl.class, UavPostalCachedObjectSerializer.class, UavPostalNearCache.class,
+                FatalResultCache.class, UavCacheWriteBehindQueue.class, UavCorrectionsMemo.class, SubValidationRefresher.class,
+                CustomAddressIndex.class, PipelineMetrics.class, MetricClientTags.class, Tracer.class, ProviderCallExecutor.class);
+        context.refresh();
+        postalValidationService = context.getBean(PostalValidationServiceImpl.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        taxReleased.countDown();
+        context.close();
+        asyncPool.shutdownNow();
+    }
+
+    @Test
+    void equalRequestsOfBatchAreValidatedOnce() {
+        PostalValidationRequest first = request(0, false);
+        PostalValidationRequest second = request(2, false);
+
+        List<UavPostalBatchValidationItem> items = postalValidationService.validateAll(null,
+                Arrays.asList(first, second, request(0, false), first));
+
+        assertEquals(4, items.size());
+        verify(mailValidationService, times(2)).validateAddress(any(), any(), any());
+        verify(uavCacheService, times(2)).getUavPostalCachedObject(any(PostalRequest.class));
+        assertNotNull(items.get(0).getResult());
+        assertNotNull(items.get(1).getResult());
+        assertSame(items.get(0), items.get(2));
+        assertSame(items.get(0), items.get(3));
+    }
+
+    @Test
+    void requestsWithDifferentFlagsAreValidatedSeparately() {
+        List<UavPostalBatchValidationItem> items = postalValidationService.validateAll(null,
+                Arrays.asList(request(0, false), request(0, true)));
+
+        verify(mailValidationService, times(2)).validateAddress(any(), any(), any());
+        verify(taxValidationService).validate(any(), any());
+        assertNull(items.get(0).getResult().getTaxRC());
+        assertEquals(Boolean.TRUE, items.get(1).getResult().getTaxRC().getTaxValid());
+    }
+
+    @Test
+    void failedRowDoesNotFailBatch() {
+        List<UavPostalBatchValidationItem> items = postalValidationService.validateAll(null,
+                Arrays.asList(request(0, false), request(1, false), request(2, false), request(1, false)));
+
+        assertNotNull(items.get(0).getResult());
+        assertNull(items.get(0).getError());
+        assertNull(items.get(1).getResult());
+        assertEquals("Mail provider is down", items.get(1).getError().getErrorDescription());
+        assertNotNull(items.get(2).getResult());
+        assertSame(items.get(1), items.get(3));
+    }
+
+    @Test
+    void timedOutTaxValidationIsReportedAndNotCached() {
+        taxBlocked = true;
+        long started = System.nanoTime();
+
+        UavPostalValidationResult result = postalValidationService.validate(null, request(0, true));
+
+        assertEquals(Boolean.TRUE, result.getPostalRC().getPostalValid());
+        assertEquals(Boolean.FALSE, result.getTaxRC().getTaxValid());
+        assertTrue(result.getTaxRC().getErrors().stream().map(ValidationError::getErrorCode).anyMatch(EX02::equals));
+        // the blocked provider call is not waited for
+        assertFalse(System.nanoTime() - started > TimeUnit.SECONDS.toNanos(5));
+        verify(uavCacheService, never()).updateUavPostalCachedObject(any());
+    }
+
+    @Test
+    void taxValidationInTimeIsCached() {
+        UavPostalValidationResult result = postalValidationService.validate(null, request(0, true));
+
+        assertEquals(Boolean.TRUE, result.getTaxRC().getTaxValid());
+        verify(uavCacheService).updateUavPostalCachedObject(any());
+    }
+
+    private PostalValidationRequest request(int address, boolean checkTax) {
+        PostalValidationRequest corpusRequest = corpus.get(address);
+        PostalValidationRequest request = new PostalValidationRequest();
+        request.setAddressLine1(corpusRequest.getAddressLine1());
+        request.setAddressLine2(corpusRequest.getAddressLine2());
+        request.setCity(corpusRequest.getCity());
+        request.setState(corpusRequest.getState());
+        request.setZip(corpusRequest.getZip());
+        request.setCountry(corpusRequest.getCountry());
+        request.setCheckTax(checkTax);
+        request.setCheckShip(false);
+        request.setCheckE911(false);
+        return request;
+    }
+}
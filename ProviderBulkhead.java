@@ -0,0 +1,99 @@
+package net.intermedia.uav.postal;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent calls to one provider. Calls over the limit wait in a bounded queue without
+ * holding a thread, calls over the queue capacity are rejected. So a slow provider can only use its own permits.
+ */
+class ProviderBulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final Queue<Runnable> queue = new ArrayDeque<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private int active;
+
+    ProviderBulkhead(String name, int maxConcurrent, int maxQueued) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent of " + name + " bulkhead must be equals or more than 1");
+        }
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * @param dispatcher starts the call, it is invoked once a permit is available
+     * @return result of the call, or a future failed with {@link RejectedExecutionException} if the bulkhead is full
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> dispatcher) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable call = () -> {
+            CompletableFuture<T> dispatched;
+            try {
+                dispatched = dispatcher.get();
+            } catch (RuntimeException e) {
+                release();
+                result.completeExceptionally(e);
+                return;
+            }
+            dispatched.whenComplete((value, e) -> {
+                release();
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+
+        synchronized (this) {
+            if (active >= maxConcurrent) {
+                if (queue.size() >= maxQueued) {
+                    rejectedCount.incrementAndGet();
+                    result.completeExceptionally(new RejectedExecutionException(name + " provider bulkhead is full: "
+                            + active + " calls in progress and " + queue.size() + " queued"));
+                } else {
+                    queue.add(call);
+                }
+                return result;
+            }
+            active++;
+        }
+        call.run();
+        return result;
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = queue.poll();
+            if (next == null) {
+                active--;
+            }
+        }
+        // the permit is handed over to the next queued call
+        if (next != null) {
+            next.run();
+        }
+    }
+
+    synchronized int getActive() {
+        return active;
+    }
+
+    synchronized int getQueued() {
+        return queue.size();
+    }
+
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
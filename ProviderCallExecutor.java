@@ -0,0 +1,106 @@
+package net.intermedia.uav.postal;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import net.intermedia.uav.common.utils.async.UavAsyncExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Executes calls to ship, tax and E911 providers. Every provider has its own bulkhead, so a backlog on one provider
+ * does not delay calls to the others.
+ * <p>
+ * In <code>platform</code> mode (default) every provider has its own pool of <code>max-concurrent</code> threads, so a slow
+ * provider holds neither {@link UavAsyncExecutor}, which runs the cache and mail stages, nor the threads of the other
+ * providers. In <code>virtual</code> mode every call gets its own virtual thread, so blocking provider I/O does not hold
+ * platform threads. Virtual threads require Java 21, on older runtimes the platform mode is used.
+ */
+@Log4j2
+@Component
+public class ProviderCallExecutor {
+
+    static final String PLATFORM_MODE = "platform";
+    static final String VIRTUAL_MODE = "virtual";
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<ValidationProvider, ProviderBulkhead> bulkheads = new EnumMap<>(ValidationProvider.class);
+
+    private final Map<ValidationProvider, ExecutorService> platformExecutors = new EnumMap<>(ValidationProvider.class);
+
+    private ExecutorService virtualThreadExecutor;
+
+    @PostConstruct
+    void init() {
+        String mode = environment.getProperty("uav.postal.async.mode", PLATFORM_MODE);
+        if (VIRTUAL_MODE.equalsIgnoreCase(mode)) {
+            virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+        } else if (!PLATFORM_MODE.equalsIgnoreCase(mode)) {
+            throw new IllegalStateException("Unexpected uav.postal.async.mode: " + mode);
+        }
+
+        for (ValidationProvider provider : ValidationProvider.values()) {
+            String prefix = "uav.postal.bulkhead." + provider.getKey();
+            int maxConcurrent = environment.getProperty(prefix + ".max-concurrent", Integer.class, 50);
+            ProviderBulkhead bulkhead = new ProviderBulkhead(provider.getDisplayName(), maxConcurrent,
+                    environment.getProperty(prefix + ".max-queued", Integer.class, 500));
+            bulkheads.put(provider, bulkhead);
+            if (virtualThreadExecutor == null) {
+                // the bulkhead never runs more calls than the pool has threads, so calls do not wait in the pool queue
+                platformExecutors.put(provider, Executors.newFixedThreadPool(maxConcurrent,
+                        new CustomizableThreadFactory("uav-" + provider.getKey() + "-")));
+            }
+
+            Gauge.builder("uav.postal.bulkhead.active", bulkhead, ProviderBulkhead::getActive)
+                    .tag("provider", provider.getKey()).register(meterRegistry);
+            Gauge.builder("uav.postal.bulkhead.queued", bulkhead, ProviderBulkhead::getQueued)
+                    .tag("provider", provider.getKey()).register(meterRegistry);
+            FunctionCounter.builder("uav.postal.bulkhead.rejected", bulkhead, ProviderBulkhead::getRejectedCount)
+                    .tag("provider", provider.getKey()).register(meterRegistry);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+        }
+        platformExecutors.values().forEach(ExecutorService::shutdown);
+    }
+
+    /**
+     * @return result of the call, or a future failed with {@link java.util.concurrent.RejectedExecutionException}
+     * if the provider bulkhead is full
+     */
+    public <T> CompletableFuture<T> supplyAsync(ValidationProvider provider, Supplier<T> call) {
+        return bulkheads.get(provider).submit(() -> CompletableFuture.supplyAsync(call,
+                virtualThreadExecutor != null ? virtualThreadExecutor : platformExecutors.get(provider)));
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            // looked up reflectively to keep the code compatible with the runtimes without virtual threads
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not supported by Java " + System.getProperty("java.version") + ", " + PLATFORM_MODE + " mode is used");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package net.intermedia.uav.postal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of work in progress, keyed by what the work is done for. The first caller for a key becomes the leader
+ * and does the work, the others are handed the leader's flight and may wait until it lands.
+ */
+class SingleFlight<K> {
+
+    private final ConcurrentMap<K, CompletableFuture<Void>> flights = new ConcurrentHashMap<>();
+
+    Flight join(K key) {
+        CompletableFuture<Void> own = new CompletableFuture<>();
+        CompletableFuture<Void> existing = flights.putIfAbsent(key, own);
+        return existing == null ? new Flight(key, own, true) : new Flight(key, existing, false);
+    }
+
+    int size() {
+        return flights.size();
+    }
+
+    class Flight {
+
+        private final K key;
+        private final CompletableFuture<Void> landing;
+        private final boolean leader;
+
+        private Flight(K key, CompletableFuture<Void> landing, boolean leader) {
+            this.key = key;
+            this.landing = landing;
+            this.leader = leader;
+        }
+
+        boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Completes when the leader is done, regardless of the outcome of its work.
+         */
+        CompletableFuture<Void> landing() {
+            return landing;
+        }
+
+        /**
+         * Must be called by the leader once its work is done, both on success and on failure.
+         */
+        void land() {
+            if (leader) {
+                flights.remove(key, landing);
+                landing.complete(null);
+            }
+        }
+    }
+}
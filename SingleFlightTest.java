@@ -0,0 +1,73 @@
+package net.intermedia.uav.postal;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String> singleFlight = new SingleFlight<>();
+
+    @Test
+    void followerIsHandedLeadersFlight() {
+        SingleFlight<String>.Flight leader = singleFlight.join("key");
+        SingleFlight<String>.Flight follower = singleFlight.join("key");
+
+        assertTrue(leader.isLeader());
+        assertFalse(follower.isLeader());
+        assertSame(leader.landing(), follower.landing());
+        assertEquals(1, singleFlight.size());
+    }
+
+    @Test
+    void followerWaitsUntilLeaderLands() {
+        SingleFlight<String>.Flight leader = singleFlight.join("key");
+        SingleFlight<String>.Flight follower = singleFlight.join("key");
+
+        assertFalse(follower.landing().isDone());
+        leader.land();
+        assertTrue(follower.landing().isDone());
+        assertFalse(follower.landing().isCompletedExceptionally());
+    }
+
+    @Test
+    void followerCannotLand() {
+        SingleFlight<String>.Flight leader = singleFlight.join("key");
+        SingleFlight<String>.Flight follower = singleFlight.join("key");
+
+        follower.land();
+        assertFalse(leader.landing().isDone());
+        assertEquals(1, singleFlight.size());
+    }
+
+    @Test
+    void nextCallerLeadsOnceFlightLanded() {
+        SingleFlight<String>.Flight first = singleFlight.join("key");
+        first.land();
+
+        SingleFlight<String>.Flight second = singleFlight.join("key");
+        assertTrue(second.isLeader());
+        assertFalse(second.landing().isDone());
+        assertEquals(1, singleFlight.size());
+
+        // a late landing of the first flight must not end the second one
+        first.land();
+        assertFalse(second.landing().isDone());
+        assertEquals(1, singleFlight.size());
+    }
+
+    @Test
+    void flightsOfDifferentKeysAreIndependent() {
+        SingleFlight<String>.Flight first = singleFlight.join("first");
+        SingleFlight<String>.Flight second = singleFlight.join("second");
+
+        assertTrue(first.isLeader());
+        assertTrue(second.isLeader());
+        first.land();
+        assertFalse(second.landing().isDone());
+        assertEquals(1, singleFlight.size());
+    }
+}
@@ -0,0 +1,64 @@
+package net.intermedia.uav.postal;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timed operation of a {@link Trace}: the whole request or one stage of it. Spans of stages executed in pool threads
+ * are linked to their parent explicitly, so the tree of a request does not depend on the thread a stage runs in.
+ */
+@Getter
+@ToString(exclude = {"startNanos", "trace"})
+public class Span {
+
+    private final String traceId;
+
+    private final long spanId;
+
+    /**
+     * Id of the parent span or 0 for the root span of a trace.
+     */
+    private final long parentSpanId;
+
+    private final String name;
+
+    /**
+     * Wall-clock start, for exporters.
+     */
+    private final long startEpochMillis;
+
+    private final long startNanos;
+
+    private volatile long durationNanos = -1;
+
+    @Getter(AccessLevel.NONE)
+    private final Trace trace;
+
+    Span(Trace trace, long spanId, long parentSpanId, String name, long startNanos) {
+        this.trace = trace;
+        this.traceId = trace.getTraceId();
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.startNanos = startNanos;
+        this.startEpochMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    public boolean isFinished() {
+        return durationNanos >= 0;
+    }
+
+    void finish() {
+        finish(System.nanoTime());
+    }
+
+    void finish(long endNanos) {
+        if (!isFinished()) {
+            durationNanos = Math.max(0, endNanos - startNanos);
+            trace.finished(this);
+        }
+    }
+}
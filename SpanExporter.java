@@ -0,0 +1,10 @@
+package net.intermedia.uav.postal;
+
+/**
+ * Receives finished spans of validation requests. Every {@link SpanExporter} bean of the context gets all spans,
+ * in the thread that finished them, so an exporter must not block.
+ */
+public interface SpanExporter {
+
+    void export(Span span);
+}
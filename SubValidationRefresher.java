@@ -0,0 +1,340 @@
+package net.intermedia.uav.postal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import net.intermedia.uav.cache.UavCacheService;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.postal.custom.CustomAddressIndex;
+import net.intermedia.uav.postal.e911.E911ValidationService;
+import net.intermedia.uav.postal.shipping.ShipValidationService;
+import net.intermedia.uav.postal.tax.TaxValidationService;
+import net.intermedia.uav.utils.UavCorrectionsService;
+import org.apache.commons.lang3.BooleanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes ship, tax and E911 results of cached entries in background before they get stale, so that a cache hit
+ * is answered right away with the cached result.
+ * <p>
+ * {@link UavPostalCachedObject} has no timestamps of sub-validations, so the time each one was performed is kept here,
+ * for at most <code>uav.postal.refresh.max-tracked</code> entries. Once a served result is older than
+ * <code>uav.postal.refresh.&lt;provider&gt;.refresh-after-ms</code>, or its age is unknown, the entry is queued for
+ * a refresh. Refreshes of every provider are limited to <code>uav.postal.refresh.&lt;provider&gt;.rate-per-second</code>
+ * and go through the provider bulkhead, so they never take more than a share of the provider capacity. No provider is
+ * refreshed unless configured.
+ * <p>
+ * Ages are lost on restart, so an entry of unknown age is refreshed lazily: it is queued like a stale one and served
+ * as it is meanwhile.
+ * <p>
+ * A refresh reads the entry the way requests do, through the near cache and the write-behind queue, and replaces only
+ * the result of the refreshed provider. If the entry changed while the provider was called, the refresh is dropped
+ * rather than written over the newer entry. Custom addresses are written synchronously, as validations write them.
+ */
+@Log4j2
+@Component
+public class SubValidationRefresher {
+
+    private static final long NOT_TRACKED = 0;
+
+    @Value("${uav.postal.refresh.max-tracked:100000}")
+    private int maxTracked;
+
+    @Value("${uav.postal.refresh.max-queued:1000}")
+    private int maxQueued;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private UavCacheService uavCacheService;
+
+    @Autowired
+    private UavPostalNearCache uavPostalNearCache;
+
+    @Autowired
+    private UavCacheWriteBehindQueue uavCacheWriteBehindQueue;
+
+    @Autowired
+    private UavPostalCachedObjectSerializer serializer;
+
+    @Autowired
+    private UavCorrectionsService uavCorrectionsService;
+
+    @Autowired
+    private CustomAddressIndex customAddressIndex;
+
+    @Autowired
+    private ProviderCallExecutor providerCallExecutor;
+
+    @Autowired
+    private TaxValidationService taxValidationService;
+
+    @Autowired
+    private ShipValidationService shipValidationService;
+
+    @Autowired
+    private E911ValidationService e911ValidationService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<ValidationProvider, Refresh> refreshes = new EnumMap<>(ValidationProvider.class);
+    private LinkedHashMap<String, long[]> validatedAtByUid;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    void init() {
+        // access ordered, ages of entries not served for long are forgotten first
+        validatedAtByUid = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                return size() > maxTracked;
+            }
+        };
+
+        for (ValidationProvider provider : ValidationProvider.values()) {
+            String prefix = "uav.postal.refresh." + provider.getKey();
+            long refreshAfterMs = environment.getProperty(prefix + ".refresh-after-ms", Long.class, 0L);
+            double ratePerSecond = environment.getProperty(prefix + ".rate-per-second", Double.class, 5.0);
+            Refresh refresh = new Refresh(provider, refreshAfterMs, new TokenBucket(ratePerSecond));
+            refreshes.put(provider, refresh);
+
+            refresh.servedAge = DistributionSummary.builder("uav.postal.served.age")
+                    .description("Age of cached results returned to clients")
+                    .baseUnit("seconds").tag("provider", provider.getKey()).register(meterRegistry);
+            refresh.refreshedCounter = Counter.builder("uav.postal.refresh.completed").tag("provider", provider.getKey()).register(meterRegistry);
+            refresh.failedCounter = Counter.builder("uav.postal.refresh.failed").tag("provider", provider.getKey()).register(meterRegistry);
+            refresh.conflictCounter = Counter.builder("uav.postal.refresh.conflicts")
+                    .description("Refreshes dropped because the entry changed while the provider was called")
+                    .tag("provider", provider.getKey()).register(meterRegistry);
+            refresh.skippedCounter = Counter.builder("uav.postal.refresh.skipped")
+                    .description("Refreshes not queued because the queue was full")
+                    .tag("provider", provider.getKey()).register(meterRegistry);
+            Gauge.builder("uav.postal.refresh.queued", refresh, SubValidationRefresher::queued).tag("provider", provider.getKey()).register(meterRegistry);
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("uav-refresh-"));
+        scheduler.scheduleWithFixedDelay(this::dispatch, 100, 100, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Whether results of the provider are refreshed in background.
+     */
+    public boolean isEnabled(ValidationProvider provider) {
+        return refreshes.get(provider).refreshAfterMs > 0;
+    }
+
+    /**
+     * Whether the results of the provider for the entry are taken care of in background: they were received within
+     * the refresh interval, or they are stale or of unknown age and queued for a refresh now. The age of an entry is
+     * known only to the instance that validated or refreshed it, and only until it is restarted.
+     *
+     * @return false if the provider is not refreshed or the refresh queue is full
+     */
+    public boolean refreshIfStale(String uid, ValidationProvider provider) {
+        Refresh refresh = refreshes.get(provider);
+        if (uid == null || refresh.refreshAfterMs <= 0) {
+            return false;
+        }
+        long validatedAt;
+        synchronized (this) {
+            long[] tracked = validatedAtByUid.get(uid);
+            validatedAt = tracked != null ? tracked[provider.ordinal()] : NOT_TRACKED;
+        }
+        if (validatedAt != NOT_TRACKED && System.currentTimeMillis() - validatedAt < refresh.refreshAfterMs) {
+            return true;
+        }
+        return enqueue(refresh, uid);
+    }
+
+    /**
+     * Records that the results of the providers were just received for the entry.
+     */
+    public void recordValidated(String uid, Collection<ValidationProvider> providers) {
+        if (uid == null || providers.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            long[] validatedAt = validatedAtByUid.computeIfAbsent(uid, key -> new long[ValidationProvider.values().length]);
+            providers.forEach(provider -> validatedAt[provider.ordinal()] = now);
+        }
+    }
+
+    /**
+     * Records the age of the cached results of the providers returned to a client and queues the stale ones to be refreshed.
+     */
+    public void onServed(UavPostalCachedObject uavPostalCachedObject, Collection<ValidationProvider> providers) {
+        String uid = uavPostalCachedObject.getUid();
+        if (uid == null || providers.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long[] validatedAt;
+        synchronized (this) {
+            long[] tracked = validatedAtByUid.get(uid);
+            validatedAt = tracked != null ? tracked.clone() : null;
+        }
+        for (ValidationProvider provider : providers) {
+            Refresh refresh = refreshes.get(provider);
+            long providerValidatedAt = validatedAt != null ? validatedAt[provider.ordinal()] : NOT_TRACKED;
+            if (providerValidatedAt != NOT_TRACKED) {
+                refresh.servedAge.record(TimeUnit.MILLISECONDS.toSeconds(now - providerValidatedAt));
+            }
+            if (refresh.refreshAfterMs > 0 && (providerValidatedAt == NOT_TRACKED || now - providerValidatedAt >= refresh.refreshAfterMs)) {
+                enqueue(refresh, uid);
+            }
+        }
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    private boolean enqueue(Refresh refresh, String uid) {
+        synchronized (refresh) {
+            if (refresh.queue.contains(uid)) {
+                return true;
+            }
+            if (refresh.queue.size() >= maxQueued) {
+                refresh.skippedCounter.increment();
+                return false;
+            }
+            refresh.queue.add(uid);
+            return true;
+        }
+    }
+
+    private void dispatch() {
+        for (Refresh refresh : refreshes.values()) {
+            String uid;
+            while ((uid = nextUid(refresh)) != null) {
+                String refreshedUid = uid;
+                providerCallExecutor.supplyAsync(refresh.provider, () -> refresh(refresh, refreshedUid))
+                        .whenComplete((refreshed, e) -> {
+                            if (e != null) {
+                                refresh.failedCounter.increment();
+                                log.warn(refresh.provider.getDisplayName() + " refresh of " + refreshedUid + " failed: " + e.getMessage());
+                            } else if (refreshed) {
+                                refresh.refreshedCounter.increment();
+                            }
+                        });
+            }
+        }
+    }
+
+    private String nextUid(Refresh refresh) {
+        synchronized (refresh) {
+            if (refresh.queue.isEmpty() || !refresh.rateLimit.tryAcquire()) {
+                return null;
+            }
+            Iterator<String> iterator = refresh.queue.iterator();
+            String uid = iterator.next();
+            iterator.remove();
+            return uid;
+        }
+    }
+
+    private boolean refresh(Refresh refresh, String uid) {
+        ValidationProvider provider = refresh.provider;
+        UavPostalCachedObject uavPostalCachedObject = read(uid);
+        if (uavPostalCachedObject == null || uavPostalCachedObject.getPostalValidationResult() == null) {
+            return false;
+        }
+        byte[] readSnapshot = serializer.serialize(uavPostalCachedObject);
+        UavPostalValidationResult result = uavPostalCachedObject.getPostalValidationResult();
+        switch (provider) {
+            case TAX:
+                /*
+                 * SPBVBO-3604: the workaround for stale tax data is applied to refreshed entries as well.
+                 */
+                uavCorrectionsService.actualizeTaxValidation(uavPostalCachedObject);
+                result.setTaxRC(taxValidationService.validate(result, uavPostalCachedObject).getTaxRC());
+                break;
+            case SHIP:
+                result.setShippingRC(shipValidationService.validate(result, uavPostalCachedObject).getShippingRC());
+                break;
+            case E911:
+                result.setE911RC(e911ValidationService.validate(result, uavPostalCachedObject).getE911RC());
+                break;
+            default:
+                throw new IllegalStateException("Unexpected provider: " + provider);
+        }
+
+        // a validation or another refresh may have written the entry meanwhile, its result must not be overwritten
+        UavPostalCachedObject currentUavPostalCachedObject = read(uid);
+        if (currentUavPostalCachedObject == null || !Arrays.equals(readSnapshot, serializer.serialize(currentUavPostalCachedObject))) {
+            refresh.conflictCounter.increment();
+            return false;
+        }
+        // a custom address may be found only by the synchronous write, so such entries are written right away
+        boolean customAddress = BooleanUtils.isTrue(uavPostalCachedObject.getIsCustomAddress());
+        if (customAddress || !uavCacheWriteBehindQueue.offer(uavPostalCachedObject)) {
+            UavPostalCachedObject updatedUavPostalCachedObject = uavCacheService.updateUavPostalCachedObject(uavPostalCachedObject);
+            uavPostalNearCache.invalidate(uavPostalCachedObject);
+            uavPostalNearCache.invalidate(updatedUavPostalCachedObject);
+            if (customAddress) {
+                customAddressIndex.update(updatedUavPostalCachedObject != null ? updatedUavPostalCachedObject : uavPostalCachedObject);
+            }
+        }
+        recordValidated(uid, EnumSet.of(provider));
+        return true;
+    }
+
+    /**
+     * Reads the entry the way requests do, taking into account writes not flushed to the cache yet.
+     */
+    private UavPostalCachedObject read(String uid) {
+        return uavCacheWriteBehindQueue.pending(uavPostalNearCache.getByUid(uid, uavCacheService::getUavPostalCachedObjectByUid));
+    }
+
+    private static int queued(Refresh refresh) {
+        synchronized (refresh) {
+            return refresh.queue.size();
+        }
+    }
+
+    private static class Refresh {
+        private final ValidationProvider provider;
+        private final long refreshAfterMs;
+        private final TokenBucket rateLimit;
+        // insertion ordered, so entries are refreshed in the order they were found stale
+        private final LinkedHashSet<String> queue = new LinkedHashSet<>();
+        private DistributionSummary servedAge;
+        private Counter refreshedCounter;
+        private Counter failedCounter;
+        private Counter conflictCounter;
+        private Counter skippedCounter;
+
+        private Refresh(ValidationProvider provider, long refreshAfterMs, TokenBucket rateLimit) {
+            this.provider = provider;
+            this.refreshAfterMs = refreshAfterMs;
+            this.rateLimit = rateLimit;
+        }
+    }
+}
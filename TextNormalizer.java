@@ -0,0 +1,135 @@
+package net.intermedia.uav.postal;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Whitespace normalization of address text in a single pass over the characters, without regular expressions.
+ * A string that is already normalized is returned as is, so normalizing clean input does not allocate.
+ */
+public final class TextNormalizer {
+
+    private TextNormalizer() {
+    }
+
+    /**
+     * Replaces a tab with a space, collapses a run of whitespace to one space and trims the string, the same as
+     * <code>value.replaceAll("\\t", " ").replaceAll("\\s{2,}", " ").trim()</code>.
+     *
+     * @return <code>null</code> for <code>null</code>
+     */
+    public static String normalize(String value) {
+        if (value == null) {
+            return null;
+        }
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int i = start;
+        while (i < end && !needsRewrite(value, i)) {
+            i++;
+        }
+        if (i == end) {
+            return start == 0 && end == value.length() ? value : value.substring(start, end);
+        }
+        StringBuilder normalized = new StringBuilder(end - start).append(value, start, i);
+        while (i < end) {
+            char c = value.charAt(i);
+            if (isWhitespace(c)) {
+                int runEnd = i + 1;
+                while (runEnd < end && isWhitespace(value.charAt(runEnd))) {
+                    runEnd++;
+                }
+                normalized.append(runEnd - i == 1 && c != '\t' ? c : ' ');
+                i = runEnd;
+            } else {
+                normalized.append(c);
+                i++;
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Same as {@link #normalize(String)}, optionally folding compatibility characters first with Unicode NFKC,
+     * e.g. full-width digits and letters and the ideographic space of Japanese input become their ASCII forms.
+     */
+    public static String normalize(String value, boolean foldCompatibilityCharacters) {
+        if (value != null && foldCompatibilityCharacters && !Normalizer.isNormalized(value, Normalizer.Form.NFKC)) {
+            value = Normalizer.normalize(value, Normalizer.Form.NFKC);
+        }
+        return normalize(value);
+    }
+
+    /**
+     * Form of the value that ignores case and extra whitespace: every run of whitespace becomes one space, the value
+     * is trimmed and upper-cased, the same as <code>value.replaceAll("\\s+", " ").trim().toUpperCase(Locale.ROOT)</code>.
+     *
+     * @return <code>null</code> for <code>null</code>
+     */
+    public static String normalizeKey(String value) {
+        if (value == null) {
+            return null;
+        }
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int i = start;
+        while (i < end && !needsCollapse(value, i)) {
+            i++;
+        }
+        String collapsed;
+        if (i == end) {
+            collapsed = start == 0 && end == value.length() ? value : value.substring(start, end);
+        } else {
+            StringBuilder normalized = new StringBuilder(end - start).append(value, start, i);
+            while (i < end) {
+                char c = value.charAt(i);
+                if (isWhitespace(c)) {
+                    while (i < end && isWhitespace(value.charAt(i))) {
+                        i++;
+                    }
+                    normalized.append(' ');
+                } else {
+                    normalized.append(c);
+                    i++;
+                }
+            }
+            collapsed = normalized.toString();
+        }
+        return collapsed.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Whitespace as matched by <code>\s</code> of regular expressions.
+     */
+    public static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Whether whitespace at <code>i</code> inside the trimmed string changes with {@link #normalize(String)}.
+     */
+    private static boolean needsRewrite(String value, int i) {
+        char c = value.charAt(i);
+        return c == '\t' || (isWhitespace(c) && isWhitespace(value.charAt(i + 1)));
+    }
+
+    /**
+     * Whether whitespace at <code>i</code> inside the trimmed string changes with {@link #normalizeKey(String)}.
+     */
+    private static boolean needsCollapse(String value, int i) {
+        char c = value.charAt(i);
+        return isWhitespace(c) && (c != ' ' || isWhitespace(value.charAt(i + 1)));
+    }
+}
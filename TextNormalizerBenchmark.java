@@ -0,0 +1,114 @@
+package net.intermedia.uav.postal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TextNormalizer} against the regular expressions it replaced, over seeded address lines of one kind:
+ * <code>clean</code> lines need no change, <code>dirty</code> ones have tabs and runs of spaces as some clients send
+ * them, <code>japanese</code> ones mix full-width digits, letters and ideographic spaces with kanji, <code>latin</code>
+ * ones have accented letters. <code>folded</code> measures the NFKC folding of JP custom address lines, which is off
+ * unless <code>uav.postal.custom.jp-fold-compatibility-characters</code> is set.
+ * <p>
+ * Allocation is reported with <code>-prof gc</code>.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class TextNormalizerBenchmark {
+
+    private static final String[] STREETS = {"Main St", "Oak Ave", "Hauptstraße", "Rue de la Paix", "Via Roma",
+            "Calle Mayor", "Kerkstraat", "Château Rd"};
+    private static final String[] JAPANESE = {"千代田区丸の内", "港区六本木", "大阪市北区梅田", "札幌市中央区北", "福岡市博多区"};
+
+    @Param({"clean", "dirty", "japanese", "latin"})
+    private String kind;
+
+    private String[] lines;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(PostalBenchmarkCorpus.SEED);
+        lines = new String[1024];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = line(random);
+        }
+    }
+
+    @Benchmark
+    public void regex(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(line.replaceAll("\\t", " ").replaceAll("\\s{2,}", " ").trim());
+        }
+    }
+
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(TextNormalizer.normalize(line));
+        }
+    }
+
+    @Benchmark
+    public void folded(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(TextNormalizer.normalize(line, true));
+        }
+    }
+
+    @Benchmark
+    public void regexKey(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(line.replaceAll("\\s+", " ").trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    @Benchmark
+    public void normalizeKey(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(TextNormalizer.normalizeKey(line));
+        }
+    }
+
+    private String line(Random random) {
+        int number = 1 + random.nextInt(9999);
+        switch (kind) {
+            case "clean":
+                return number + " " + STREETS[random.nextInt(2)];
+            case "dirty":
+                return "  " + number + "\t" + STREETS[random.nextInt(2)].replace(" ", "   ") + " ";
+            case "japanese":
+                return JAPANESE[random.nextInt(JAPANESE.length)] + "１－" + toFullWidth(String.valueOf(number))
+                        + "　ＡＢＣビル" + (random.nextBoolean() ? "  " : "");
+            case "latin":
+                return number + " " + STREETS[2 + random.nextInt(STREETS.length - 2)];
+            default:
+                throw new IllegalStateException("Unknown kind " + kind);
+        }
+    }
+
+    private static String toFullWidth(String digits) {
+        StringBuilder fullWidth = new StringBuilder(digits.length());
+        for (int i = 0; i < digits.length(); i++) {
+            fullWidth.append((char) (digits.charAt(i) - '0' + '０'));
+        }
+        return fullWidth.toString();
+    }
+}
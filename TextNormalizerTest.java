@@ -0,0 +1,75 @@
+package net.intermedia.uav.postal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TextNormalizerTest {
+
+    // whitespace matched by \s, other control characters, a non-breaking and an ideographic space that \s does not match
+    private static final char[] ALPHABET = {'a', 'B', '7', '-', ' ', ' ', ' ', '\t', '\n', '\u000B', '\f', '\r', '\u0001',
+            '\u001F', '\u00A0', '\u3000', 'ü', '丸'};
+
+    @Test
+    void normalizeIsSameAsRegex() {
+        Random random = new Random(PostalBenchmarkCorpus.SEED);
+        for (int i = 0; i < 100_000; i++) {
+            String value = randomString(random);
+            assertEquals(value.replaceAll("\\t", " ").replaceAll("\\s{2,}", " ").trim(), TextNormalizer.normalize(value),
+                    () -> "normalize(\"" + escape(value) + "\")");
+        }
+    }
+
+    @Test
+    void normalizeKeyIsSameAsRegex() {
+        Random random = new Random(PostalBenchmarkCorpus.SEED);
+        for (int i = 0; i < 100_000; i++) {
+            String value = randomString(random);
+            assertEquals(value.replaceAll("\\s+", " ").trim().toUpperCase(Locale.ROOT), TextNormalizer.normalizeKey(value),
+                    () -> "normalizeKey(\"" + escape(value) + "\")");
+        }
+    }
+
+    @Test
+    void normalizedValueIsReturnedAsIs() {
+        String value = "1 Main St";
+        assertSame(value, TextNormalizer.normalize(value));
+        assertSame(value, TextNormalizer.normalize(value, false));
+        assertSame(value, TextNormalizer.normalize(value, true));
+    }
+
+    @Test
+    void nullIsNormalizedToNull() {
+        assertNull(TextNormalizer.normalize(null));
+        assertNull(TextNormalizer.normalize(null, true));
+        assertNull(TextNormalizer.normalizeKey(null));
+    }
+
+    @Test
+    void compatibilityCharactersAreFoldedOnlyIfAsked() {
+        String value = "丸の内１－１　ＡＢＣビル  ";
+        assertEquals("丸の内１－１　ＡＢＣビル", TextNormalizer.normalize(value, false));
+        assertEquals("丸の内1-1 ABCビル", TextNormalizer.normalize(value, true));
+    }
+
+    private static String randomString(Random random) {
+        char[] chars = new char[random.nextInt(12)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return new String(chars);
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            escaped.append(c < ' ' || c > '~' ? String.format("\\u%04X", (int) c) : String.valueOf(c));
+        }
+        return escaped.toString();
+    }
+}
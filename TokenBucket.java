@@ -0,0 +1,35 @@
+package net.intermedia.uav.postal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter that allows <code>permitsPerSecond</code> on average with bursts of up to one second worth of permits.
+ */
+class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilledAtNanos;
+
+    TokenBucket(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be more than 0");
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, permitsPerSecond);
+        this.tokens = capacity;
+        this.refilledAtNanos = System.nanoTime();
+    }
+
+    synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAtNanos) * permitsPerNano);
+        refilledAtNanos = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
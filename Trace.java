@@ -0,0 +1,108 @@
+package net.intermedia.uav.postal;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spans of one validation request. The trace id is the request id, so spans exported for a slow request can be found
+ * by the id a client reports. Finished spans are passed to the exporters and kept for the <code>Server-Timing</code>
+ * breakdown of the response.
+ */
+@Log4j2
+public class Trace {
+
+    /**
+     * Trace of a request that is not traced: records nothing.
+     */
+    static final Trace DISABLED = new Trace();
+
+    private final String traceId;
+    private final List<SpanExporter> exporters;
+    private final AtomicLong nextSpanId = new AtomicLong();
+    private final Queue<Span> finishedSpans = new ConcurrentLinkedQueue<>();
+    private final Span root;
+
+    Trace(String traceId, String name, List<SpanExporter> exporters) {
+        this.traceId = traceId;
+        this.exporters = exporters;
+        this.root = new Span(this, nextSpanId.incrementAndGet(), 0, name, System.nanoTime());
+    }
+
+    private Trace() {
+        this.traceId = null;
+        this.exporters = Collections.emptyList();
+        this.root = null;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public boolean isEnabled() {
+        return root != null;
+    }
+
+    /**
+     * Adds a finished span of a stage that started at <code>startNanos</code> as a child of the request span.
+     */
+    void record(String name, long startNanos, long endNanos) {
+        if (root != null) {
+            new Span(this, nextSpanId.incrementAndGet(), root.getSpanId(), name, startNanos).finish(endNanos);
+        }
+    }
+
+    /**
+     * Finishes the request span. Stages finished later, e.g. a provider call that timed out, are still recorded.
+     */
+    public void finish() {
+        if (root != null) {
+            root.finish();
+        }
+    }
+
+    void finished(Span span) {
+        finishedSpans.add(span);
+        for (SpanExporter exporter : exporters) {
+            try {
+                exporter.export(span);
+            } catch (RuntimeException e) {
+                log.debug("Span " + span + " was not exported: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Value of the <code>Server-Timing</code> header: time of every stage finished so far in milliseconds, summed up
+     * for a stage that ran more than once, and the total time of the request as <code>total</code>.
+     *
+     * @return <code>null</code> if the request is not traced
+     */
+    public String serverTiming() {
+        if (root == null) {
+            return null;
+        }
+        Map<String, Long> durations = new LinkedHashMap<>();
+        for (Span span : finishedSpans) {
+            if (span != root) {
+                durations.merge(span.getName(), span.getDurationNanos(), Long::sum);
+            }
+        }
+        durations.put("total", root.isFinished() ? root.getDurationNanos() : System.nanoTime() - root.getStartNanos());
+        StringBuilder serverTiming = new StringBuilder();
+        durations.forEach((name, nanos) -> {
+            if (serverTiming.length() > 0) {
+                serverTiming.append(", ");
+            }
+            serverTiming.append(name).append(";dur=").append(TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0);
+        });
+        return serverTiming.toString();
+    }
+}
@@ -0,0 +1,32 @@
+package net.intermedia.uav.postal;
+
+import net.intermedia.uav.context.ValidationContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Starts traces of validation requests. Spans are exported to all {@link SpanExporter} beans; without exporters they
+ * only make the <code>Server-Timing</code> breakdown. Tracing is off with <code>uav.postal.tracing.enabled=false</code>.
+ */
+@Component
+public class Tracer {
+
+    @Value("${uav.postal.tracing.enabled:true}")
+    private boolean enabled;
+
+    @Autowired(required = false)
+    private List<SpanExporter> exporters = Collections.emptyList();
+
+    public Trace start(String name, ValidationContext validationContext) {
+        if (!enabled) {
+            return Trace.DISABLED;
+        }
+        UUID requestId = validationContext != null ? validationContext.getRequestId() : null;
+        return new Trace(requestId != null ? requestId.toString() : UUID.randomUUID().toString(), name, exporters);
+    }
+}
@@ -0,0 +1,245 @@
+package net.intermedia.uav.postal;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import net.intermedia.uav.cache.UavCacheService;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes validated cache entries to {@link UavCacheService} in background, so that a request does not wait for the
+ * cache write. Entries wait in a bounded queue, where a newer write of the same entry replaces the older one, and are
+ * flushed in batches every <code>uav.postal.write-behind.flush-interval-ms</code>.
+ * <p>
+ * Until an entry is written it is returned by {@link #pending(UavPostalCachedObject)}, so requests for the same address
+ * see it instead of the outdated remote one. An entry leaves the queue only once its write succeeds, a failed write is
+ * retried by the next flushes up to <code>uav.postal.write-behind.max-attempts</code> times. The write result is lost
+ * for the caller: whoever needs it, e.g. to return a custom address the entry is remapped to, must write synchronously.
+ */
+@Log4j2
+@Component
+public class UavCacheWriteBehindQueue {
+
+    @Value("${uav.postal.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${uav.postal.write-behind.capacity:10000}")
+    private int capacity;
+
+    @Value("${uav.postal.write-behind.batch-size:100}")
+    private int batchSize;
+
+    @Value("${uav.postal.write-behind.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    @Value("${uav.postal.write-behind.max-attempts:3}")
+    private int maxAttempts;
+
+    @Autowired
+    private UavCacheService uavCacheService;
+
+    @Autowired
+    private UavPostalNearCache uavPostalNearCache;
+
+    @Autowired
+    private UavPostalCachedObjectSerializer serializer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final LinkedHashMap<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+    private volatile boolean accepting;
+    private ScheduledExecutorService flushExecutor;
+    private Timer flushTimer;
+
+    private final AtomicLong mergedCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+        flushTimer = Timer.builder("uav.postal.write.behind.flush")
+                .description("Time to write one batch of queued entries to the cache")
+                .register(meterRegistry);
+        Gauge.builder("uav.postal.write.behind.depth", this, UavCacheWriteBehindQueue::size).register(meterRegistry);
+        FunctionCounter.builder("uav.postal.write.behind.merged", mergedCount, AtomicLong::get)
+                .description("Writes replaced by a newer write of the same entry before being flushed")
+                .register(meterRegistry);
+        FunctionCounter.builder("uav.postal.write.behind.overflows", overflowCount, AtomicLong::get)
+                .description("Writes done synchronously because the queue was full")
+                .register(meterRegistry);
+        FunctionCounter.builder("uav.postal.write.behind.dropped", droppedCount, AtomicLong::get)
+                .description("Queued writes failed every attempt or not flushed on shutdown")
+                .register(meterRegistry);
+
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("uav-write-behind-"));
+        flushExecutor.scheduleWithFixedDelay(this::flushAll, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        accepting = true;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (flushExecutor == null) {
+            return;
+        }
+        accepting = false;
+        flushExecutor.shutdown();
+        try {
+            if (!flushExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Write-behind flush did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // whatever was queued after the last scheduled flush is written by the closing thread
+        flushAll();
+        synchronized (this) {
+            if (!pendingWrites.isEmpty()) {
+                log.warn(pendingWrites.size() + " cache writes were not flushed on shutdown");
+                droppedCount.addAndGet(pendingWrites.size());
+                pendingWrites.clear();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues the entry to be written to the cache.
+     *
+     * @return <code>false</code> if the entry was not queued and has to be written by the caller
+     */
+    public boolean offer(UavPostalCachedObject uavPostalCachedObject) {
+        String key = key(uavPostalCachedObject);
+        if (!accepting || key == null) {
+            return false;
+        }
+        // the caller keeps changing its object on the way to a client
+        PendingWrite pendingWrite = new PendingWrite(key, serializer.deserialize(serializer.serialize(uavPostalCachedObject)));
+        synchronized (this) {
+            if (pendingWrites.containsKey(key)) {
+                mergedCount.incrementAndGet();
+            } else if (pendingWrites.size() >= capacity) {
+                overflowCount.incrementAndGet();
+                return false;
+            }
+            pendingWrites.put(key, pendingWrite);
+        }
+        // the near cache may still hold the entry as it was before this write
+        uavPostalNearCache.invalidate(uavPostalCachedObject);
+        return true;
+    }
+
+    /**
+     * Returns a copy of the queued version of the entry, or the entry itself if nothing is queued for it.
+     */
+    public UavPostalCachedObject pending(UavPostalCachedObject uavPostalCachedObject) {
+        String key = key(uavPostalCachedObject);
+        if (!enabled || key == null) {
+            return uavPostalCachedObject;
+        }
+        byte[] snapshot;
+        synchronized (this) {
+            PendingWrite pendingWrite = pendingWrites.get(key);
+            if (pendingWrite == null) {
+                return uavPostalCachedObject;
+            }
+            snapshot = serializer.serialize(pendingWrite.uavPostalCachedObject);
+        }
+        return serializer.deserialize(snapshot);
+    }
+
+    /**
+     * Forgets queued writes of the entry with the UID, e.g. when it is deleted.
+     */
+    public synchronized void discard(String uid) {
+        if (uid != null) {
+            pendingWrites.values().removeIf(pendingWrite -> uid.equals(pendingWrite.uavPostalCachedObject.getUid()));
+        }
+    }
+
+    public synchronized int size() {
+        return pendingWrites.size();
+    }
+
+    /**
+     * Writes the entries queued by now, entries queued meanwhile are left for the next flush.
+     */
+    private void flushAll() {
+        List<PendingWrite> queued;
+        synchronized (this) {
+            queued = new ArrayList<>(pendingWrites.values());
+        }
+        for (int from = 0; from < queued.size(); from += batchSize) {
+            List<PendingWrite> batch = queued.subList(from, Math.min(queued.size(), from + batchSize));
+            flushTimer.record(() -> write(batch));
+        }
+    }
+
+    private void write(List<PendingWrite> batch) {
+        for (PendingWrite pendingWrite : batch) {
+            UavPostalCachedObject uavPostalCachedObject = pendingWrite.uavPostalCachedObject;
+            try {
+                UavPostalCachedObject updatedUavPostalCachedObject = uavCacheService.updateUavPostalCachedObject(uavPostalCachedObject);
+                uavPostalNearCache.invalidate(uavPostalCachedObject);
+                uavPostalNearCache.invalidate(updatedUavPostalCachedObject);
+                // the entry may be queued again meanwhile, the newer write stays in the queue
+                synchronized (this) {
+                    pendingWrites.remove(pendingWrite.key, pendingWrite);
+                }
+            } catch (RuntimeException e) {
+                boolean dropped;
+                synchronized (this) {
+                    dropped = ++pendingWrite.attempts >= maxAttempts && pendingWrites.remove(pendingWrite.key, pendingWrite);
+                }
+                if (dropped) {
+                    droppedCount.incrementAndGet();
+                    log.error("Couldn't write the cached object " + uavPostalCachedObject.getUid() + " to the cache in "
+                            + maxAttempts + " attempts, the write is dropped", e);
+                } else {
+                    log.warn("Couldn't write the cached object " + uavPostalCachedObject.getUid() + " to the cache, retrying: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static String key(UavPostalCachedObject uavPostalCachedObject) {
+        if (uavPostalCachedObject == null) {
+            return null;
+        }
+        return uavPostalCachedObject.getCacheKey() != null ? uavPostalCachedObject.getCacheKey() : uavPostalCachedObject.getUid();
+    }
+
+    private static class PendingWrite {
+        private final String key;
+        private final UavPostalCachedObject uavPostalCachedObject;
+        // guarded by the queue
+        private int attempts;
+
+        private PendingWrite(String key, UavPostalCachedObject uavPostalCachedObject) {
+            this.key = key;
+            this.uavPostalCachedObject = uavPostalCachedObject;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package net.intermedia.uav.postal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.intermedia.uav.cache.UavCacheService;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UavCacheWriteBehindQueueTest {
+
+    private static final int CAPACITY = 3;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final UavCacheService uavCacheService = mock(UavCacheService.class);
+    private final UavPostalNearCache uavPostalNearCache = mock(UavPostalNearCache.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UavCacheWriteBehindQueue queue = new UavCacheWriteBehindQueue();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(queue, "enabled", true);
+        ReflectionTestUtils.setField(queue, "capacity", CAPACITY);
+        ReflectionTestUtils.setField(queue, "batchSize", 2);
+        // flushes are run by the tests
+        ReflectionTestUtils.setField(queue, "flushIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(queue, "maxAttempts", MAX_ATTEMPTS);
+        ReflectionTestUtils.setField(queue, "uavCacheService", uavCacheService);
+        ReflectionTestUtils.setField(queue, "uavPostalNearCache", uavPostalNearCache);
+        ReflectionTestUtils.setField(queue, "serializer", new UavPostalCachedObjectSerializer(new ObjectMapper()));
+        ReflectionTestUtils.setField(queue, "meterRegistry", meterRegistry);
+        when(uavCacheService.updateUavPostalCachedObject(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        queue.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    void writesOfSameEntryAreMerged() {
+        assertTrue(queue.offer(cachedObject("key", "uid", "v1")));
+        assertTrue(queue.offer(cachedObject("key", "uid", "v2")));
+        assertEquals(1, queue.size());
+
+        flush();
+
+        ArgumentCaptor<UavPostalCachedObject> written = ArgumentCaptor.forClass(UavPostalCachedObject.class);
+        verify(uavCacheService).updateUavPostalCachedObject(written.capture());
+        assertEquals("v2", written.getValue().getSource());
+        assertEquals(0, queue.size());
+        assertEquals(1, meterRegistry.get("uav.postal.write.behind.merged").functionCounter().count());
+    }
+
+    @Test
+    void queuedEntryIsSnapshot() {
+        UavPostalCachedObject cachedObject = cachedObject("key", "uid", "v1");
+        queue.offer(cachedObject);
+        cachedObject.setSource("changed by the caller");
+
+        UavPostalCachedObject pending = queue.pending(cachedObject("key", "uid", "remote"));
+        assertEquals("v1", pending.getSource());
+        assertNotSame(pending, queue.pending(cachedObject("key", "uid", "remote")));
+        verify(uavPostalNearCache).invalidate(cachedObject);
+    }
+
+    @Test
+    void entryNotQueuedIsReturnedAsIs() {
+        UavPostalCachedObject cachedObject = cachedObject("key", "uid", "remote");
+        assertSame(cachedObject, queue.pending(cachedObject));
+    }
+
+    @Test
+    void entryIsPendingUntilWritten() {
+        queue.offer(cachedObject("key", "uid", "v1"));
+        flush();
+
+        UavPostalCachedObject cachedObject = cachedObject("key", "uid", "remote");
+        assertSame(cachedObject, queue.pending(cachedObject));
+    }
+
+    @Test
+    void failedWriteIsRetried() {
+        when(uavCacheService.updateUavPostalCachedObject(any()))
+                .thenThrow(new IllegalStateException("cache is down"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        queue.offer(cachedObject("key", "uid", "v1"));
+
+        flush();
+        assertEquals(1, queue.size());
+        assertEquals("v1", queue.pending(cachedObject("key", "uid", "remote")).getSource());
+
+        flush();
+        assertEquals(0, queue.size());
+        verify(uavCacheService, times(2)).updateUavPostalCachedObject(any());
+        assertEquals(0, meterRegistry.get("uav.postal.write.behind.dropped").functionCounter().count());
+    }
+
+    @Test
+    void writeIsDroppedAfterMaxAttempts() {
+        when(uavCacheService.updateUavPostalCachedObject(any())).thenThrow(new IllegalStateException("cache is down"));
+        queue.offer(cachedObject("key", "uid", "v1"));
+
+        for (int attempt = 1; attempt < MAX_ATTEMPTS; attempt++) {
+            flush();
+            assertEquals(1, queue.size());
+        }
+        flush();
+
+        assertEquals(0, queue.size());
+        verify(uavCacheService, times(MAX_ATTEMPTS)).updateUavPostalCachedObject(any());
+        assertEquals(1, meterRegistry.get("uav.postal.write.behind.dropped").functionCounter().count());
+    }
+
+    @Test
+    void newerWriteIsKeptWhenOlderOneFails() {
+        when(uavCacheService.updateUavPostalCachedObject(any())).thenAnswer(invocation -> {
+            // the entry is queued again while its older version is being written
+            queue.offer(cachedObject("key", "uid", "v2"));
+            throw new IllegalStateException("cache is down");
+        }).thenAnswer(invocation -> invocation.getArgument(0));
+        ReflectionTestUtils.setField(queue, "maxAttempts", 1);
+        queue.offer(cachedObject("key", "uid", "v1"));
+
+        flush();
+
+        assertEquals(1, queue.size());
+        assertEquals("v2", queue.pending(cachedObject("key", "uid", "remote")).getSource());
+        assertEquals(0, meterRegistry.get("uav.postal.write.behind.dropped").functionCounter().count());
+    }
+
+    @Test
+    void discardedWriteIsNotFlushed() {
+        queue.offer(cachedObject("key", "deleted", "v1"));
+        queue.offer(cachedObject(null, "kept", "v1"));
+
+        queue.discard("deleted");
+        flush();
+
+        ArgumentCaptor<UavPostalCachedObject> written = ArgumentCaptor.forClass(UavPostalCachedObject.class);
+        verify(uavCacheService).updateUavPostalCachedObject(written.capture());
+        assertEquals("kept", written.getValue().getUid());
+    }
+
+    @Test
+    void fullQueueRejectsNewEntries() {
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(queue.offer(cachedObject("key" + i, "uid" + i, "v1")));
+        }
+
+        assertFalse(queue.offer(cachedObject("key" + CAPACITY, "uid" + CAPACITY, "v1")));
+        // a newer write of a queued entry still fits
+        assertTrue(queue.offer(cachedObject("key0", "uid0", "v2")));
+        assertEquals(CAPACITY, queue.size());
+        assertEquals(1, meterRegistry.get("uav.postal.write.behind.overflows").functionCounter().count());
+
+        flush();
+        verify(uavCacheService, times(CAPACITY)).updateUavPostalCachedObject(any());
+    }
+
+    @Test
+    void nothingIsQueuedAfterShutdown() {
+        queue.offer(cachedObject("key", "uid", "v1"));
+
+        queue.shutdown();
+
+        verify(uavCacheService).updateUavPostalCachedObject(any());
+        assertFalse(queue.offer(cachedObject("key", "uid", "v2")));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void disabledQueueQueuesNothing() {
+        UavCacheWriteBehindQueue disabled = new UavCacheWriteBehindQueue();
+        disabled.init();
+
+        assertFalse(disabled.offer(cachedObject("key", "uid", "v1")));
+        verify(uavCacheService, never()).updateUavPostalCachedObject(any());
+    }
+
+    private void flush() {
+        ReflectionTestUtils.invokeMethod(queue, "flushAll");
+    }
+
+    private static UavPostalCachedObject cachedObject(String cacheKey, String uid, String source) {
+        UavPostalCachedObject cachedObject = new UavPostalCachedObject();
+        cachedObject.setCacheKey(cacheKey);
+        cachedObject.setUid(uid);
+        cachedObject.setSource(source);
+        return cachedObject;
+    }
+}
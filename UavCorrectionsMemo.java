@@ -0,0 +1,148 @@
+package net.intermedia.uav.postal;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.EqualsAndHashCode;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.pojo.postal.PostalRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bounded memo of corrections applied to a cached object on a cache hit.
+ * <p>
+ * Corrections depend only on the request as it was sent and on the cache entry, so they are memoized by the raw request
+ * fields and a digest of the entry as it was read: an entry changed by any instance gets a new digest and is corrected
+ * again. Only the properties the corrections changed are kept, and they are applied to an entry equal to the one they
+ * were computed for. Memoized corrections expire after <code>uav.postal.corrections-memo.ttl-ms</code>.
+ */
+@Component
+public class UavCorrectionsMemo {
+
+    @Value("${uav.postal.corrections-memo.enabled:true}")
+    private boolean enabled;
+
+    @Value("${uav.postal.corrections-memo.max-size:10000}")
+    private int maxSize;
+
+    @Value("${uav.postal.corrections-memo.ttl-ms:60000}")
+    private long ttlMs;
+
+    @Autowired
+    private UavPostalCachedObjectSerializer serializer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Map<Key, Entry> corrections;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        // access ordered, the least recently used correction is dropped first
+        corrections = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        FunctionCounter.builder("uav.postal.corrections.memo.hits", hitCount, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("uav.postal.corrections.memo.misses", missCount, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("uav.postal.corrections.memo.size", this, UavCorrectionsMemo::size).register(meterRegistry);
+    }
+
+    /**
+     * Applies <code>corrections</code> to the cached object or, if they were applied to the same request and an equal
+     * entry before, applies the changes they made then.
+     *
+     * @return corrected validation result of the cached object
+     */
+    public UavPostalValidationResult correct(PostalRequest postalRequest, UavPostalCachedObject uavPostalCachedObject,
+                                             Consumer<UavPostalCachedObject> corrections) {
+        if (!enabled) {
+            corrections.accept(uavPostalCachedObject);
+            return uavPostalCachedObject.getPostalValidationResult();
+        }
+
+        byte[] snapshot = serializer.serialize(uavPostalCachedObject);
+        Key key = new Key(PostalRequestKey.of(postalRequest), digest(snapshot));
+        byte[] delta = null;
+        synchronized (this) {
+            Entry entry = this.corrections.get(key);
+            if (entry != null && entry.expiresAtNanos - System.nanoTime() < 0) {
+                this.corrections.remove(key);
+            } else if (entry != null) {
+                delta = entry.delta;
+            }
+        }
+        if (delta != null) {
+            hitCount.incrementAndGet();
+            serializer.applyDelta(uavPostalCachedObject, delta);
+            return uavPostalCachedObject.getPostalValidationResult();
+        }
+
+        missCount.incrementAndGet();
+        corrections.accept(uavPostalCachedObject);
+        if (uavPostalCachedObject.getPostalValidationResult() != null) {
+            Entry entry = new Entry(serializer.delta(snapshot, uavPostalCachedObject),
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMs));
+            synchronized (this) {
+                this.corrections.put(key, entry);
+            }
+        }
+        return uavPostalCachedObject.getPostalValidationResult();
+    }
+
+    public synchronized int size() {
+        return corrections.size();
+    }
+
+    public synchronized int purge() {
+        int size = corrections.size();
+        corrections.clear();
+        return size;
+    }
+
+    private static byte[] digest(byte[] snapshot) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(snapshot);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @EqualsAndHashCode
+    private static final class Key {
+        private final PostalRequestKey requestKey;
+        private final byte[] entryDigest;
+
+        private Key(PostalRequestKey requestKey, byte[] entryDigest) {
+            this.requestKey = requestKey;
+            this.entryDigest = entryDigest;
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] delta;
+        private final long expiresAtNanos;
+
+        private Entry(byte[] delta, long expiresAtNanos) {
+            this.delta = delta;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
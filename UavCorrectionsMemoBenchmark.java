@@ -0,0 +1,87 @@
+package net.intermedia.uav.postal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.pojo.postal.PostalValidationRequest;
+import net.intermedia.uav.utils.UavCorrectionsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of corrections on the cache hit path with and without {@link UavCorrectionsMemo}. Both variants start from
+ * a fresh copy of the entry, as every hit gets one from the near cache. <code>tax</code> runs the SPBVBO-3604 tax
+ * workaround as well, as it is run for entries not refreshed in background.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class UavCorrectionsMemoBenchmark {
+
+    /**
+     * Distinct requests hitting the cache, the memo holds 10000 of them.
+     */
+    @Param({"100", "10000", "100000"})
+    private int addresses;
+
+    @Param({"true", "false"})
+    private boolean tax;
+
+    private UavCorrectionsService uavCorrectionsService;
+    private UavPostalCachedObjectSerializer serializer;
+    private UavCorrectionsMemo memo;
+    private List<PostalValidationRequest> requests;
+    private byte[][] snapshots;
+
+    @Setup
+    public void setUp() {
+        uavCorrectionsService = new UavCorrectionsService();
+        serializer = new UavPostalCachedObjectSerializer(new ObjectMapper());
+        memo = new UavCorrectionsMemo();
+        ReflectionTestUtils.setField(memo, "enabled", true);
+        ReflectionTestUtils.setField(memo, "maxSize", 10000);
+        ReflectionTestUtils.setField(memo, "ttlMs", TimeUnit.MINUTES.toMillis(10));
+        ReflectionTestUtils.setField(memo, "serializer", serializer);
+        ReflectionTestUtils.setField(memo, "meterRegistry", new SimpleMeterRegistry());
+        memo.init();
+
+        requests = PostalBenchmarkCorpus.requests(addresses);
+        snapshots = new byte[addresses][];
+        for (int i = 0; i < addresses; i++) {
+            snapshots[i] = serializer.serialize(PostalBenchmarkCorpus.cachedObject(requests.get(i), "uid-" + i));
+        }
+    }
+
+    @Benchmark
+    public UavPostalValidationResult withoutMemo() {
+        int i = ThreadLocalRandom.current().nextInt(addresses);
+        UavPostalCachedObject cachedObject = serializer.deserialize(snapshots[i]);
+        PostalValidationServiceImpl.correct(uavCorrectionsService, requests.get(i), cachedObject, tax);
+        return cachedObject.getPostalValidationResult();
+    }
+
+    @Benchmark
+    public UavPostalValidationResult withMemo() {
+        int i = ThreadLocalRandom.current().nextInt(addresses);
+        PostalValidationRequest request = requests.get(i);
+        return memo.correct(request, serializer.deserialize(snapshots[i]),
+                cachedObject -> PostalValidationServiceImpl.correct(uavCorrectionsService, request, cachedObject, tax));
+    }
+}
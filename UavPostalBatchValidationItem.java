@@ -0,0 +1,38 @@
+package net.intermedia.uav.postal;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonView;
+import lombok.Getter;
+import lombok.ToString;
+import net.intermedia.uav.pojo.UserView;
+import net.intermedia.uav.pojo.ValidationError;
+
+/**
+ * Outcome of a single address of a batch validation: either the validation result or the error that prevented it.
+ */
+@Getter
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UavPostalBatchValidationItem {
+
+    @JsonView(UserView.class)
+    private final UavPostalValidationResult result;
+
+    @JsonView(UserView.class)
+    private final ValidationError error;
+
+    private UavPostalBatchValidationItem(UavPostalValidationResult result, ValidationError error) {
+        this.result = result;
+        this.error = error;
+    }
+
+    public static UavPostalBatchValidationItem succeeded(UavPostalValidationResult result) {
+        return new UavPostalBatchValidationItem(result, null);
+    }
+
+    public static UavPostalBatchValidationItem failed(String errorDescription) {
+        ValidationError validationError = new ValidationError();
+        validationError.setErrorDescription(errorDescription);
+        return new UavPostalBatchValidationItem(null, validationError);
+    }
+}
@@ -0,0 +1,207 @@
+package net.intermedia.uav.postal;
+
+import lombok.extern.log4j.Log4j2;
+import net.intermedia.uav.cache.UavCacheService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Warms up the near cache of a new instance with the entries that were the hottest on the previous one.
+ * <p>
+ * A snapshot keeps only UIDs of the hottest entries and the request keys resolved to them, the entries themselves are
+ * loaded from {@link UavCacheService} at startup, so they are never older than the remote cache. The snapshot is taken
+ * on shutdown and on <code>POST /actuator/postalcache</code>. The warm-up is an application runner: Spring Boot publishes
+ * {@link ReadinessState#ACCEPTING_TRAFFIC} only after runners complete, so the readiness probe keeps traffic away from
+ * a cold instance until the warm-up completes or times out, while liveness is not affected.
+ */
+@Log4j2
+@Component
+public class UavPostalCacheWarmUp implements ApplicationRunner {
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    @Value("${uav.postal.warm-up.enabled:false}")
+    private boolean enabled;
+
+    @Value("${uav.postal.warm-up.snapshot-file:uav-postal-cache.snapshot}")
+    private String snapshotFile;
+
+    @Value("${uav.postal.warm-up.max-entries:5000}")
+    private int maxEntries;
+
+    @Value("${uav.postal.warm-up.parallelism:8}")
+    private int parallelism;
+
+    @Value("${uav.postal.warm-up.timeout-ms:60000}")
+    private long timeoutMs;
+
+    @Autowired
+    private UavPostalNearCache uavPostalNearCache;
+
+    @Autowired
+    private UavCacheService uavCacheService;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            loadSnapshot();
+        }
+    }
+
+    @PreDestroy
+    void snapshotOnShutdown() {
+        if (enabled) {
+            try {
+                snapshot();
+            } catch (RuntimeException e) {
+                log.error("Couldn't take a snapshot of the near cache on shutdown", e);
+            }
+        }
+    }
+
+    /**
+     * Writes UIDs of the hottest near cache entries to the snapshot file.
+     *
+     * @return number of entries in the snapshot
+     */
+    public int snapshot() {
+        Map<String, Set<PostalRequestKey>> hottest = uavPostalNearCache.hottest(maxEntries);
+        Path path = Paths.get(snapshotFile);
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tempPath))))) {
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(hottest.size());
+                for (Map.Entry<String, Set<PostalRequestKey>> entry : hottest.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (PostalRequestKey requestKey : entry.getValue()) {
+                        writeRequestKey(out, requestKey);
+                    }
+                }
+            }
+            // a snapshot is replaced at once, so a crash while writing does not leave a broken one
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't write the near cache snapshot to " + path, e);
+        }
+        log.info("Near cache snapshot of " + hottest.size() + " entries is written to " + path);
+        return hottest.size();
+    }
+
+    private void loadSnapshot() {
+        Path path = Paths.get(snapshotFile);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("uav-warm-up-"));
+        try {
+            if (!Files.exists(path)) {
+                log.info("No near cache snapshot at " + path + ", starting cold");
+                return;
+            }
+            Map<String, Set<PostalRequestKey>> hottest = readSnapshot(path);
+            AtomicInteger loaded = new AtomicInteger();
+            List<CompletableFuture<Void>> loads = new ArrayList<>(hottest.size());
+            hottest.forEach((uid, requestKeys) -> loads.add(CompletableFuture.runAsync(() -> {
+                try {
+                    if (uavPostalNearCache.preload(uid, requestKeys, uavCacheService::getUavPostalCachedObjectByUid)) {
+                        loaded.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    // the entry may be deleted since the snapshot was taken
+                    log.debug("Couldn't preload " + uid + ": " + e.getMessage());
+                }
+            }, executor)));
+            try {
+                CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.warn("Near cache warm-up did not complete in " + timeoutMs + "ms");
+            }
+            log.info("Near cache is warmed up with " + loaded.get() + " of " + hottest.size() + " entries");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Near cache warm-up from " + path + " failed", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Map<String, Set<PostalRequestKey>> readSnapshot(Path path) throws IOException {
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(file)))) {
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unexpected snapshot version: " + version);
+            }
+            int size = in.readInt();
+            Map<String, Set<PostalRequestKey>> hottest = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                String uid = in.readUTF();
+                int keyCount = in.readInt();
+                Set<PostalRequestKey> requestKeys = new HashSet<>(keyCount);
+                for (int j = 0; j < keyCount; j++) {
+                    requestKeys.add(readRequestKey(in));
+                }
+                hottest.put(uid, requestKeys);
+            }
+            return hottest;
+        }
+    }
+
+    private static void writeRequestKey(DataOutputStream out, PostalRequestKey requestKey) throws IOException {
+        writeNullable(out, requestKey.getAddressLine1());
+        writeNullable(out, requestKey.getAddressLine2());
+        writeNullable(out, requestKey.getAddressLine3());
+        writeNullable(out, requestKey.getCity());
+        writeNullable(out, requestKey.getState());
+        writeNullable(out, requestKey.getZip());
+        writeNullable(out, requestKey.getCountry());
+    }
+
+    private static PostalRequestKey readRequestKey(DataInputStream in) throws IOException {
+        return new PostalRequestKey(readNullable(in), readNullable(in), readNullable(in), readNullable(in),
+                readNullable(in), readNullable(in), readNullable(in));
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
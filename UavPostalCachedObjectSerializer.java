@@ -0,0 +1,120 @@
+package net.intermedia.uav.postal;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Converts cached objects and validation results to compact snapshots and back. They are mutable and are modified
+ * on the way to a client, so an object kept in memory is handed out as a fresh copy made from its snapshot.
+ */
+@Component
+public class UavPostalCachedObjectSerializer {
+
+    private static final String RESULT_PROPERTY = "postalValidationResult";
+    private static final String OBJECT_DELTA = "object";
+    private static final String RESULT_DELTA = "result";
+
+    private final ObjectMapper objectMapper;
+
+    public UavPostalCachedObjectSerializer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper.copy().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    public byte[] serialize(UavPostalCachedObject uavPostalCachedObject) {
+        try {
+            return objectMapper.writeValueAsBytes(uavPostalCachedObject);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't serialize cached object " + uavPostalCachedObject.getUid(), e);
+        }
+    }
+
+    public UavPostalCachedObject deserialize(byte[] snapshot) {
+        try {
+            return objectMapper.readValue(snapshot, UavPostalCachedObject.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't deserialize cached object", e);
+        }
+    }
+
+    /**
+     * Properties of the object and of its validation result changed since the snapshot was taken. Properties of the
+     * result are compared one by one, the other properties as a whole.
+     */
+    public byte[] delta(byte[] snapshot, UavPostalCachedObject uavPostalCachedObject) {
+        try {
+            JsonNode before = objectMapper.readTree(snapshot);
+            ObjectNode after = objectMapper.valueToTree(uavPostalCachedObject);
+            ObjectNode delta = objectMapper.createObjectNode();
+            ObjectNode objectDelta = changedProperties(before, after);
+            JsonNode resultBefore = before.get(RESULT_PROPERTY);
+            JsonNode resultAfter = after.get(RESULT_PROPERTY);
+            if (resultBefore instanceof ObjectNode && resultAfter instanceof ObjectNode) {
+                objectDelta.remove(RESULT_PROPERTY);
+                delta.set(RESULT_DELTA, changedProperties(resultBefore, (ObjectNode) resultAfter));
+            }
+            delta.set(OBJECT_DELTA, objectDelta);
+            return objectMapper.writeValueAsBytes(delta);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't compare cached object " + uavPostalCachedObject.getUid(), e);
+        }
+    }
+
+    /**
+     * Sets the properties of a {@link #delta} to the object, which must be equal to the one the delta was taken from.
+     */
+    public void applyDelta(UavPostalCachedObject uavPostalCachedObject, byte[] delta) {
+        try {
+            JsonNode changes = objectMapper.readTree(delta);
+            JsonNode objectDelta = changes.get(OBJECT_DELTA);
+            if (objectDelta != null && objectDelta.size() > 0) {
+                objectMapper.readerForUpdating(uavPostalCachedObject).readValue(objectDelta);
+            }
+            JsonNode resultDelta = changes.get(RESULT_DELTA);
+            if (resultDelta != null && resultDelta.size() > 0) {
+                objectMapper.readerForUpdating(uavPostalCachedObject.getPostalValidationResult()).readValue(resultDelta);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't apply changes to cached object " + uavPostalCachedObject.getUid(), e);
+        }
+    }
+
+    private ObjectNode changedProperties(JsonNode before, ObjectNode after) {
+        ObjectNode changed = objectMapper.createObjectNode();
+        after.fields().forEachRemaining(property -> {
+            if (!property.getValue().equals(before.get(property.getKey()))) {
+                changed.set(property.getKey(), property.getValue());
+            }
+        });
+        // a property cleared by the corrections is not written at all if nulls are not included
+        before.fieldNames().forEachRemaining(name -> {
+            if (!after.has(name)) {
+                changed.set(name, NullNode.getInstance());
+            }
+        });
+        return changed;
+    }
+
+    public byte[] serializeResult(UavPostalValidationResult uavPostalValidationResult) {
+        try {
+            return objectMapper.writeValueAsBytes(uavPostalValidationResult);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't serialize validation result", e);
+        }
+    }
+
+    public UavPostalValidationResult deserializeResult(byte[] snapshot) {
+        try {
+            return objectMapper.readValue(snapshot, UavPostalValidationResult.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't deserialize validation result", e);
+        }
+    }
+}
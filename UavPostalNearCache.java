@@ -0,0 +1,257 @@
+package net.intermedia.uav.postal;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.intermedia.uav.cache.UavCacheService;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.pojo.postal.PostalRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * In-process, size-bounded cache of {@link UavPostalCachedObject} in front of the remote {@link UavCacheService}.
+ * <p>
+ * Only entries with a validation result are kept, for at most <code>uav.postal.near-cache.ttl-ms</code>. Once the cache
+ * is full, a new entry replaces the least recently used one only if it is accessed more frequently (TinyLFU admission),
+ * so one-off addresses of bulk validations do not evict hot ones. Entries must be invalidated on every local write,
+ * writes of other instances are only seen after the TTL.
+ */
+@Component
+public class UavPostalNearCache {
+
+    @Value("${uav.postal.near-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${uav.postal.near-cache.max-size:10000}")
+    private int maxSize;
+
+    @Value("${uav.postal.near-cache.ttl-ms:60000}")
+    private long ttlMs;
+
+    @Autowired
+    private UavPostalCachedObjectSerializer serializer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // access ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entriesByUid = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<PostalRequestKey, String> uidsByRequestKey = new HashMap<>();
+    private FrequencySketch sketch;
+    private long invalidations;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong rejectionCount = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        sketch = new FrequencySketch(maxSize);
+        FunctionCounter.builder("uav.postal.near.cache.hits", hitCount, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("uav.postal.near.cache.misses", missCount, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("uav.postal.near.cache.evictions", evictionCount, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("uav.postal.near.cache.rejections", rejectionCount, AtomicLong::get)
+                .description("Entries not admitted because they are accessed less frequently than the eviction candidate")
+                .register(meterRegistry);
+        Gauge.builder("uav.postal.near.cache.size", this, UavPostalNearCache::size).register(meterRegistry);
+    }
+
+    /**
+     * Returns a copy of the entry the request is resolved to, or the object loaded by <code>loader</code>.
+     */
+    public UavPostalCachedObject get(PostalRequest postalRequest, Function<PostalRequest, UavPostalCachedObject> loader) {
+        if (!enabled) {
+            return loader.apply(postalRequest);
+        }
+        PostalRequestKey requestKey = PostalRequestKey.of(postalRequest);
+        byte[] snapshot;
+        long generation;
+        synchronized (this) {
+            String uid = uidsByRequestKey.get(requestKey);
+            snapshot = uid != null ? lookup(uid) : null;
+            generation = invalidations;
+        }
+        if (snapshot != null) {
+            hitCount.incrementAndGet();
+            return serializer.deserialize(snapshot);
+        }
+        missCount.incrementAndGet();
+        UavPostalCachedObject uavPostalCachedObject = loader.apply(postalRequest);
+        put(requestKey, uavPostalCachedObject, generation);
+        return uavPostalCachedObject;
+    }
+
+    /**
+     * Returns a copy of the entry with the UID, or the object loaded by <code>loader</code>.
+     */
+    public UavPostalCachedObject getByUid(String uid, Function<String, UavPostalCachedObject> loader) {
+        if (!enabled) {
+            return loader.apply(uid);
+        }
+        byte[] snapshot;
+        long generation;
+        synchronized (this) {
+            snapshot = lookup(uid);
+            generation = invalidations;
+        }
+        if (snapshot != null) {
+            hitCount.incrementAndGet();
+            return serializer.deserialize(snapshot);
+        }
+        missCount.incrementAndGet();
+        UavPostalCachedObject uavPostalCachedObject = loader.apply(uid);
+        put(null, uavPostalCachedObject, generation);
+        return uavPostalCachedObject;
+    }
+
+    public void invalidate(UavPostalCachedObject uavPostalCachedObject) {
+        if (uavPostalCachedObject != null) {
+            invalidate(uavPostalCachedObject.getUid());
+        }
+    }
+
+    public synchronized void invalidate(String uid) {
+        invalidations++;
+        if (uid != null) {
+            remove(uid);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        invalidations++;
+        entriesByUid.clear();
+        uidsByRequestKey.clear();
+        sketch.clear();
+    }
+
+    public synchronized int size() {
+        return entriesByUid.size();
+    }
+
+    /**
+     * UIDs of at most <code>limit</code> most frequently accessed entries, most frequent first, with the request keys
+     * resolved to them.
+     */
+    public synchronized Map<String, Set<PostalRequestKey>> hottest(int limit) {
+        List<String> uids = new ArrayList<>(entriesByUid.keySet());
+        uids.sort(Comparator.comparingInt((String uid) -> sketch.frequency(uid)).reversed());
+        Map<String, Set<PostalRequestKey>> hottest = new LinkedHashMap<>();
+        for (String uid : uids.subList(0, Math.min(limit, uids.size()))) {
+            hottest.put(uid, new HashSet<>(entriesByUid.get(uid).requestKeys));
+        }
+        return hottest;
+    }
+
+    /**
+     * Loads the entry with the UID ahead of requests for it and resolves the request keys to it.
+     *
+     * @return whether the entry was loaded and kept
+     */
+    public boolean preload(String uid, Set<PostalRequestKey> requestKeys, Function<String, UavPostalCachedObject> loader) {
+        if (!enabled) {
+            return false;
+        }
+        long generation;
+        synchronized (this) {
+            generation = invalidations;
+        }
+        UavPostalCachedObject uavPostalCachedObject = loader.apply(uid);
+        put(null, uavPostalCachedObject, generation);
+        synchronized (this) {
+            Entry entry = entriesByUid.get(uid);
+            if (entry == null) {
+                return false;
+            }
+            for (PostalRequestKey requestKey : requestKeys) {
+                entry.requestKeys.add(requestKey);
+                uidsByRequestKey.put(requestKey, uid);
+            }
+            return true;
+        }
+    }
+
+    private byte[] lookup(String uid) {
+        sketch.increment(uid);
+        Entry entry = entriesByUid.get(uid);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAtNanos - System.nanoTime() < 0) {
+            remove(uid);
+            return null;
+        }
+        return entry.snapshot;
+    }
+
+    private void put(PostalRequestKey requestKey, UavPostalCachedObject uavPostalCachedObject, long generation) {
+        if (uavPostalCachedObject == null || uavPostalCachedObject.getUid() == null || uavPostalCachedObject.getPostalValidationResult() == null) {
+            return;
+        }
+        String uid = uavPostalCachedObject.getUid();
+        byte[] snapshot = serializer.serialize(uavPostalCachedObject);
+        long expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        synchronized (this) {
+            // something was invalidated while loading, the loaded object may be already outdated
+            if (generation != invalidations) {
+                return;
+            }
+            sketch.increment(uid);
+            Entry entry = entriesByUid.get(uid);
+            if (entry == null) {
+                if (entriesByUid.size() >= maxSize && !evictFor(uid)) {
+                    rejectionCount.incrementAndGet();
+                    return;
+                }
+                entry = new Entry();
+                entriesByUid.put(uid, entry);
+            }
+            entry.snapshot = snapshot;
+            entry.expiresAtNanos = expiresAtNanos;
+            if (requestKey != null) {
+                entry.requestKeys.add(requestKey);
+                uidsByRequestKey.put(requestKey, uid);
+            }
+        }
+    }
+
+    private boolean evictFor(String candidateUid) {
+        Iterator<Map.Entry<String, Entry>> eldest = entriesByUid.entrySet().iterator();
+        String victimUid = eldest.next().getKey();
+        if (sketch.frequency(candidateUid) <= sketch.frequency(victimUid)) {
+            return false;
+        }
+        remove(victimUid);
+        evictionCount.incrementAndGet();
+        return true;
+    }
+
+    private void remove(String uid) {
+        Entry entry = entriesByUid.remove(uid);
+        if (entry != null) {
+            entry.requestKeys.forEach(requestKey -> uidsByRequestKey.remove(requestKey, uid));
+        }
+    }
+
+    private static class Entry {
+        private byte[] snapshot;
+        private long expiresAtNanos;
+        private final Set<PostalRequestKey> requestKeys = new HashSet<>(2);
+    }
+}
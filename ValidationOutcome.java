@@ -0,0 +1,25 @@
+package net.intermedia.uav.postal;
+
+import lombok.Getter;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+
+/**
+ * Result of the validation pipeline together with the cache entry it ended with, so that callers needing the entry
+ * do not read it from cache once again.
+ */
+@Getter
+class ValidationOutcome {
+
+    private final UavPostalValidationResult result;
+
+    /**
+     * Entry as it was read or written by the pipeline, <code>null</code> if the cache was not accessed at all,
+     * e.g. for a known fatal address.
+     */
+    private final UavPostalCachedObject cachedObject;
+
+    ValidationOutcome(UavPostalValidationResult result, UavPostalCachedObject cachedObject) {
+        this.result = result;
+        this.cachedObject = cachedObject;
+    }
+}
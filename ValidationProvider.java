@@ -0,0 +1,27 @@
+package net.intermedia.uav.postal;
+
+/**
+ * Providers of sub-validations that are performed in parallel after mail validation.
+ */
+public enum ValidationProvider {
+    SHIP("Shipping"),
+    TAX("Tax"),
+    E911("E911");
+
+    private final String displayName;
+
+    ValidationProvider(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Name used in configuration properties and metric tags.
+     */
+    public String getKey() {
+        return name().toLowerCase();
+    }
+}
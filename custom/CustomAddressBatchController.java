@@ -0,0 +1,83 @@
+package net.intermedia.uav.postal.custom;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import lombok.extern.log4j.Log4j2;
+import net.intermedia.uav.Mapping;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * REST controller that handles large batches of custom address changes, streaming back the outcome of every chunk
+ */
+@Api
+@Log4j2
+@RestController
+@RequestMapping(Mapping.POSTAL)
+public class CustomAddressBatchController {
+
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    @Autowired
+    private CustomAddressService customAddressService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @ApiOperation(value = "Deletes custom addresses in chunks.",
+            notes = "The outcome of every chunk is streamed back as a line of JSON with the per-UID results or an error" +
+                    " as soon as the chunk completes. A retry with the same Idempotency-Key header deletes only the chunks that failed.")
+    @PostMapping(value = "/custom/batch/delete", produces = CustomAddressImportController.NDJSON)
+    public ResponseEntity<StreamingResponseBody> deleteCustomAddresses(@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                                                       @RequestBody List<String> uids) {
+        return stream(out -> customAddressService.deleteCustomAddresses(uids, idempotencyKey, writer(out)));
+    }
+
+    @ApiOperation(value = "Edits shipping flags of custom addresses in chunks.",
+            notes = "Accepts a map of UID to the shipping flag. The outcome of every chunk is streamed back the same way as" +
+                    " for the chunked delete.")
+    @PostMapping(value = "/custom/batch/shipping-valid", produces = CustomAddressImportController.NDJSON)
+    public ResponseEntity<StreamingResponseBody> editShippingValidOfAddresses(@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                                                              @RequestBody Map<String, Boolean> uidShippingValidMap) {
+        return stream(out -> customAddressService.editShippingValidOfAddresses(uidShippingValidMap, idempotencyKey, writer(out)));
+    }
+
+    private ResponseEntity<StreamingResponseBody> stream(Consumer<OutputStream> operation) {
+        StreamingResponseBody body = out -> {
+            try {
+                operation.accept(out);
+            } catch (UncheckedIOException e) {
+                log.error("Custom address batch was interrupted: " + e.getCause().getMessage());
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(CustomAddressImportController.NDJSON)).body(body);
+    }
+
+    private <T> Consumer<CustomAddressChunkResult<T>> writer(OutputStream out) {
+        return result -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(result));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,193 @@
+package net.intermedia.uav.postal.custom;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Executes batch operations over custom addresses in chunks of <code>uav.postal.custom.batch.chunk-size</code> UIDs,
+ * at most <code>uav.postal.custom.batch.parallelism</code> chunks at a time, so a large batch makes progress chunk
+ * by chunk instead of timing out as a whole.
+ * <p>
+ * Results of chunks completed under an idempotency key are kept for <code>uav.postal.custom.batch.idempotency-ttl-ms</code>:
+ * a retry with the same key returns them instead of executing the chunk again and executes only the failed chunks.
+ * Outcomes are passed to the caller in the calling thread, so a failure to write them, e.g. to a client that is gone,
+ * reaches the caller as it is.
+ */
+@Log4j2
+@Component
+class CustomAddressBatchExecutor {
+
+    @Value("${uav.postal.custom.batch.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${uav.postal.custom.batch.parallelism:4}")
+    private int parallelism;
+
+    @Value("${uav.postal.custom.batch.idempotency-ttl-ms:3600000}")
+    private long idempotencyTtlMs;
+
+    @Value("${uav.postal.custom.batch.idempotency-max-keys:10000}")
+    private int idempotencyMaxKeys;
+
+    private ExecutorService executor;
+
+    private LinkedHashMap<String, CompletedChunks> completedChunksByKey;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("uav-custom-batch-"));
+        completedChunksByKey = new LinkedHashMap<String, CompletedChunks>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletedChunks> eldest) {
+                return size() > idempotencyMaxKeys;
+            }
+        };
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Executes <code>chunkOperation</code> over chunks of <code>uids</code> and passes the outcome of every chunk to
+     * <code>chunkConsumer</code> as soon as it completes. The consumer is called by the calling thread, one chunk at
+     * a time, and returns once all chunks are completed. If the consumer fails, e.g. when the client is gone, chunks
+     * not started yet are not executed and the failure is thrown as is.
+     * <p>
+     * A chunk is claimed under the idempotency key before it is executed, so concurrent retries with the same key
+     * execute it once: the others get its results when it completes.
+     *
+     * @param operation      name of the operation, results of different operations are never mixed up
+     * @param valueOf        value the operation applies to a UID, a retry with a different value executes the chunk again
+     * @param idempotencyKey key of the batch given by a client, may be <code>null</code>
+     */
+    <T> void execute(String operation, List<String> uids, Function<String, Object> valueOf, String idempotencyKey,
+                     Function<List<String>, List<T>> chunkOperation, Consumer<CustomAddressChunkResult<T>> chunkConsumer) {
+        CompletedChunks completedChunks = idempotencyKey != null ? completedChunks(operation + ":" + idempotencyKey) : null;
+        BlockingQueue<CustomAddressChunkResult<T>> results = new LinkedBlockingQueue<>();
+        List<Runnable> cancellations = new ArrayList<>();
+        int chunkCount = 0;
+        for (int from = 0; from < uids.size(); from += chunkSize, chunkCount++) {
+            int chunkNumber = chunkCount;
+            List<String> chunkUids = new ArrayList<>(uids.subList(from, Math.min(uids.size(), from + chunkSize)));
+            List<Object> chunkIdentity = completedChunks != null ? identity(chunkUids, valueOf) : null;
+            CompletableFuture<List<?>> claim = new CompletableFuture<>();
+            CompletableFuture<List<?>> claimed = completedChunks != null ? completedChunks.claim(chunkIdentity, claim) : null;
+            if (claimed != null) {
+                // executed by an earlier or a concurrent request with the same key
+                claimed.whenComplete((replayedResults, e) -> {
+                    @SuppressWarnings("unchecked")
+                    List<T> chunkResults = (List<T>) replayedResults;
+                    results.add(e == null ?
+                            CustomAddressChunkResult.completed(chunkNumber, chunkUids, chunkResults, true) :
+                            CustomAddressChunkResult.failed(chunkNumber, chunkUids, "Chunk failed in a concurrent request, retry it"));
+                });
+                continue;
+            }
+            CompletableFuture<Void> task = CompletableFuture.runAsync(() -> {
+                try {
+                    List<T> chunkResults = chunkOperation.apply(chunkUids);
+                    claim.complete(chunkResults);
+                    results.add(CustomAddressChunkResult.completed(chunkNumber, chunkUids, chunkResults, false));
+                } catch (RuntimeException e) {
+                    log.error(operation + " of chunk " + chunkNumber + " failed", e);
+                    release(completedChunks, chunkIdentity, claim, e);
+                    results.add(CustomAddressChunkResult.failed(chunkNumber, chunkUids, e.getMessage()));
+                }
+            }, executor);
+            cancellations.add(() -> {
+                // a task cancelled before it started is never executed
+                if (task.cancel(false)) {
+                    release(completedChunks, chunkIdentity, claim, new CancellationException("Batch was interrupted"));
+                }
+            });
+        }
+
+        try {
+            for (int consumed = 0; consumed < chunkCount; consumed++) {
+                chunkConsumer.accept(results.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancellations.forEach(Runnable::run);
+            throw new IllegalStateException(operation + " was interrupted", e);
+        } catch (RuntimeException e) {
+            cancellations.forEach(Runnable::run);
+            throw e;
+        }
+    }
+
+    /**
+     * Gives up the claim of a chunk not completed, so a retry executes it again.
+     */
+    private static void release(CompletedChunks completedChunks, List<Object> chunkIdentity, CompletableFuture<List<?>> claim, Throwable cause) {
+        if (completedChunks != null) {
+            completedChunks.release(chunkIdentity, claim);
+        }
+        claim.completeExceptionally(cause);
+    }
+
+    private synchronized CompletedChunks completedChunks(String key) {
+        long now = System.nanoTime();
+        CompletedChunks completedChunks = completedChunksByKey.get(key);
+        if (completedChunks == null || completedChunks.expiresAtNanos - now < 0) {
+            completedChunks = new CompletedChunks(now + TimeUnit.MILLISECONDS.toNanos(idempotencyTtlMs));
+            completedChunksByKey.put(key, completedChunks);
+        }
+        return completedChunks;
+    }
+
+    private static List<Object> identity(List<String> uids, Function<String, Object> valueOf) {
+        List<Object> identity = new ArrayList<>(uids.size());
+        for (String uid : uids) {
+            identity.add(new AbstractMap.SimpleImmutableEntry<>(uid, valueOf.apply(uid)));
+        }
+        return identity;
+    }
+
+    /**
+     * Chunks executed or being executed under one idempotency key.
+     */
+    private static class CompletedChunks {
+        private final long expiresAtNanos;
+        private final ConcurrentMap<List<Object>, CompletableFuture<List<?>>> resultsByChunk = new ConcurrentHashMap<>();
+
+        private CompletedChunks(long expiresAtNanos) {
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        /**
+         * @return results of the chunk claimed before, completed or not yet, or <code>null</code> if the chunk is
+         * claimed by the caller now
+         */
+        private CompletableFuture<List<?>> claim(List<Object> chunkIdentity, CompletableFuture<List<?>> claim) {
+            return resultsByChunk.putIfAbsent(chunkIdentity, claim);
+        }
+
+        private void release(List<Object> chunkIdentity, CompletableFuture<List<?>> claim) {
+            resultsByChunk.remove(chunkIdentity, claim);
+        }
+    }
+}
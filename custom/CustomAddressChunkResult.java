@@ -0,0 +1,49 @@
+package net.intermedia.uav.postal.custom;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Outcome of one chunk of a batch operation over custom addresses: per-UID results of the chunk or the error that
+ * failed the whole chunk.
+ */
+@Getter
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CustomAddressChunkResult<T> {
+
+    /**
+     * Number of the chunk in the batch, starting from 0.
+     */
+    private final int chunk;
+
+    private final List<String> uids;
+
+    private final List<T> results;
+
+    private final String error;
+
+    /**
+     * Whether the results were recorded by an earlier call with the same idempotency key and were not executed again.
+     */
+    private final boolean replayed;
+
+    private CustomAddressChunkResult(int chunk, List<String> uids, List<T> results, String error, boolean replayed) {
+        this.chunk = chunk;
+        this.uids = uids;
+        this.results = results;
+        this.error = error;
+        this.replayed = replayed;
+    }
+
+    static <T> CustomAddressChunkResult<T> completed(int chunk, List<String> uids, List<T> results, boolean replayed) {
+        return new CustomAddressChunkResult<>(chunk, uids, results, null, replayed);
+    }
+
+    static <T> CustomAddressChunkResult<T> failed(int chunk, List<String> uids, String error) {
+        return new CustomAddressChunkResult<>(chunk, uids, null, error, false);
+    }
+}
@@ -0,0 +1,75 @@
+package net.intermedia.uav.postal.custom;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import lombok.extern.log4j.Log4j2;
+import net.intermedia.uav.Mapping;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * REST controller that handles bulk import of custom addresses
+ */
+@Api
+@Log4j2
+@RestController
+@RequestMapping(Mapping.POSTAL)
+public class CustomAddressImportController {
+
+    static final String CSV = "text/csv";
+    static final String NDJSON = "application/x-ndjson";
+
+    @Autowired
+    private CustomAddressService customAddressService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @ApiOperation(value = "Imports custom addresses.",
+            notes = "Accepts custom address requests as CSV with a header line of request properties or as newline delimited JSON.\n" +
+                    " Rows are read and created as they arrive, the result of every row is streamed back as a line of JSON" +
+                    " with the UID of the created address or an error.")
+    @PostMapping(value = "/custom/import", consumes = {CSV, NDJSON}, produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> importCustomAddresses(@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+                                                                       HttpServletRequest request) {
+        CustomAddressImportReader.Format format = MediaType.parseMediaType(CSV).includes(contentType) ?
+                CustomAddressImportReader.Format.CSV : CustomAddressImportReader.Format.NDJSON;
+        StreamingResponseBody body = out -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(),
+                    contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8))) {
+                customAddressService.importCustomAddresses(new CustomAddressImportReader(reader, format, objectMapper, validator), result -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(result));
+                        out.write('\n');
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                log.error("Custom address import was interrupted: " + e.getCause().getMessage());
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+}
@@ -0,0 +1,225 @@
+package net.intermedia.uav.postal.custom;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.intermedia.uav.pojo.postal.CustomAddressRequest;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Reads custom address requests from CSV or NDJSON one row at a time, so a file of any size is never held in memory.
+ * <p>
+ * The first CSV line names the {@link CustomAddressRequest} properties of the columns. Empty lines are skipped.
+ * A row that cannot be parsed or is not a valid request is returned with an error instead of failing the import.
+ */
+class CustomAddressImportReader implements Iterator<CustomAddressImportRow> {
+
+    enum Format {
+        CSV, NDJSON
+    }
+
+    /**
+     * A quoted CSV field not closed within this many characters is taken for an unterminated one.
+     */
+    private static final int MAX_QUOTED_FIELD_LENGTH = 64 * 1024;
+    private static final int NOTHING_PUSHED_BACK = -2;
+
+    private final BufferedReader reader;
+    private final Format format;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private List<String> header;
+    private long rowNumber;
+    private CustomAddressImportRow next;
+    private boolean exhausted;
+    private int pushedBack = NOTHING_PUSHED_BACK;
+
+    CustomAddressImportReader(BufferedReader reader, Format format, ObjectMapper objectMapper, Validator validator) {
+        this.reader = reader;
+        this.format = format;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !exhausted) {
+            next = read();
+            exhausted = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public CustomAddressImportRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        CustomAddressImportRow row = next;
+        next = null;
+        return row;
+    }
+
+    private CustomAddressImportRow read() {
+        try {
+            if (format == Format.CSV && header == null) {
+                try {
+                    header = readCsvRecord();
+                } catch (MalformedRecordException e) {
+                    throw new IllegalStateException("Malformed CSV header: " + e.getMessage());
+                }
+                if (header == null) {
+                    return null;
+                }
+            }
+            while (true) {
+                if (format == Format.CSV) {
+                    List<String> record;
+                    try {
+                        record = readCsvRecord();
+                    } catch (MalformedRecordException e) {
+                        return CustomAddressImportRow.invalid(++rowNumber, e.getMessage());
+                    }
+                    if (record == null) {
+                        return null;
+                    }
+                    if (record.size() == 1 && record.get(0).isEmpty()) {
+                        continue;
+                    }
+                    return toRow(++rowNumber, record);
+                }
+                String line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                return toRow(++rowNumber, line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private CustomAddressImportRow toRow(long number, List<String> record) {
+        if (record.size() > header.size()) {
+            return CustomAddressImportRow.invalid(number, "Row has " + record.size() + " columns, but the header has " + header.size());
+        }
+        Map<String, String> properties = new HashMap<>();
+        for (int i = 0; i < record.size(); i++) {
+            if (!record.get(i).isEmpty()) {
+                properties.put(header.get(i), record.get(i));
+            }
+        }
+        try {
+            return validate(number, objectMapper.convertValue(properties, CustomAddressRequest.class));
+        } catch (IllegalArgumentException e) {
+            return CustomAddressImportRow.invalid(number, e.getMessage());
+        }
+    }
+
+    private CustomAddressImportRow toRow(long number, String line) {
+        try {
+            return validate(number, objectMapper.readValue(line, CustomAddressRequest.class));
+        } catch (IOException e) {
+            return CustomAddressImportRow.invalid(number, e.getMessage());
+        }
+    }
+
+    private CustomAddressImportRow validate(long number, CustomAddressRequest request) {
+        Set<ConstraintViolation<CustomAddressRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            return CustomAddressImportRow.invalid(number, violations.stream()
+                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                    .collect(Collectors.joining(", ")));
+        }
+        return CustomAddressImportRow.parsed(number, request);
+    }
+
+    /**
+     * Reads one RFC 4180 record: fields are separated by commas, quoted fields may contain commas, line breaks and
+     * doubled quotes. A record with a quoted field that is not closed ends with the line the field starts on.
+     *
+     * @return fields of the record or <code>null</code> at the end of the input
+     * @throws MalformedRecordException if a quoted field is not closed, the next record starts on the next line
+     */
+    private List<String> readCsvRecord() throws IOException, MalformedRecordException {
+        int c = readChar();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int quotedLength = 0;
+        while (true) {
+            if (quoted) {
+                if (c == -1 || ++quotedLength > MAX_QUOTED_FIELD_LENGTH) {
+                    // the rest of the input is not taken for one field, reading goes on from the next line
+                    reader.reset();
+                    skipLine();
+                    throw new MalformedRecordException("Unterminated quoted field in row " + (rowNumber + 1));
+                }
+                if (c == '"') {
+                    int following = reader.read();
+                    if (following == '"') {
+                        field.append('"');
+                    } else {
+                        pushedBack = following;
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+                quotedLength = 0;
+                reader.mark(MAX_QUOTED_FIELD_LENGTH + 2);
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else if (c == '\n' || c == -1) {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = readChar();
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    private int readChar() throws IOException {
+        if (pushedBack != NOTHING_PUSHED_BACK) {
+            int c = pushedBack;
+            pushedBack = NOTHING_PUSHED_BACK;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = reader.read();
+        } while (c != '\n' && c != -1);
+    }
+
+    private static class MalformedRecordException extends Exception {
+        private MalformedRecordException(String message) {
+            super(message);
+        }
+    }
+}
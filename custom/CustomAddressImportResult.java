@@ -0,0 +1,37 @@
+package net.intermedia.uav.postal.custom;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Outcome of one row of a custom address import: UID of the created address or the reason it was not created.
+ */
+@Getter
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CustomAddressImportResult {
+
+    /**
+     * Number of the row in the imported file, starting from 1, a header line of CSV is not counted.
+     */
+    private final long row;
+
+    private final String uid;
+
+    private final String error;
+
+    private CustomAddressImportResult(long row, String uid, String error) {
+        this.row = row;
+        this.uid = uid;
+        this.error = error;
+    }
+
+    public static CustomAddressImportResult created(long row, String uid) {
+        return new CustomAddressImportResult(row, uid, null);
+    }
+
+    public static CustomAddressImportResult failed(long row, String error) {
+        return new CustomAddressImportResult(row, null, error);
+    }
+}
@@ -0,0 +1,31 @@
+package net.intermedia.uav.postal.custom;
+
+import lombok.Getter;
+import net.intermedia.uav.pojo.postal.CustomAddressRequest;
+
+/**
+ * Row of an imported file: either a parsed request or the reason it could not be parsed.
+ */
+@Getter
+public class CustomAddressImportRow {
+
+    private final long number;
+
+    private final CustomAddressRequest request;
+
+    private final String error;
+
+    private CustomAddressImportRow(long number, CustomAddressRequest request, String error) {
+        this.number = number;
+        this.request = request;
+        this.error = error;
+    }
+
+    public static CustomAddressImportRow parsed(long number, CustomAddressRequest request) {
+        return new CustomAddressImportRow(number, request, null);
+    }
+
+    public static CustomAddressImportRow invalid(long number, String error) {
+        return new CustomAddressImportRow(number, null, error);
+    }
+}
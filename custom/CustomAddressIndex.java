@@ -0,0 +1,426 @@
+package net.intermedia.uav.postal.custom;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import net.intermedia.uav.cache.UavCacheService;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.pojo.postal.SearchAddressType;
+import net.intermedia.uav.postal.TextNormalizer;
+import net.intermedia.uav.postal.UavPostalCachedObjectSerializer;
+import net.intermedia.uav.postal.UavPostalValidationResult;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-process inverted index of custom addresses, so that searches by a part of a street or a city do not scan
+ * the cache. The index is off unless <code>uav.postal.custom-index.enabled</code> is set: it is local to the instance,
+ * so it only serves searches that may miss the latest writes of other instances.
+ * <p>
+ * Every indexed address gets a document number, live documents are kept in UID order, so a page of a search seeks
+ * to the UID it follows and stops once it is full. Country, state and zip are matched exactly, city and street by
+ * substring. A search selective enough is answered from the shortest posting list of the searched values: documents
+ * with the country, state or zip, or with a trigram of the city or street, are checked and sorted. Other searches
+ * check documents in UID order. A changed address is added as a new document and the old one is marked deleted,
+ * posting lists are compacted once deleted documents outnumber live ones. Every document keeps a snapshot of its entry,
+ * so a found address is returned without reading the cache.
+ * <p>
+ * The index is built from the cache at startup and kept current by {@link CustomAddressService} writes and by
+ * validations resolved to custom addresses. Writes of other instances are only seen after {@link #rebuild()}.
+ */
+@Log4j2
+@Component
+public class CustomAddressIndex {
+
+    private static final int GRAM_LENGTH = 3;
+
+    /**
+     * Candidates of a posting list checked and sorted per document of the page, less selective searches walk
+     * documents in UID order.
+     */
+    private static final int CANDIDATES_PER_RESULT = 8;
+    private static final int MIN_SORTED_CANDIDATES = 4096;
+
+    @Value("${uav.postal.custom-index.enabled:false}")
+    private boolean enabled;
+
+    @Value("${uav.postal.custom-index.rebuild-page-size:1000}")
+    private int rebuildPageSize;
+
+    @Autowired
+    private UavCacheService uavCacheService;
+
+    @Autowired
+    private UavPostalCachedObjectSerializer serializer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Segment current = new Segment();
+    // documents written while the index is rebuilt, they must not be replaced with older ones read from the cache
+    private Segment rebuilding;
+    private Set<String> writtenWhileRebuilding;
+    private volatile boolean ready;
+
+    @PostConstruct
+    void initMetrics() {
+        Gauge.builder("uav.postal.custom.index.size", this, CustomAddressIndex::size).register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                log.error("Couldn't build custom address index, searches go to the cache", e);
+            }
+        }, "uav-custom-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Whether searches can be answered by the index: it is built and covers the search type.
+     */
+    public boolean supports(SearchAddressType searchAddressType) {
+        return enabled && ready && searchAddressType == SearchAddressType.ALL;
+    }
+
+    /**
+     * Reads all custom addresses from the cache into a new index, which replaces the current one once it is built.
+     *
+     * @return number of indexed addresses
+     */
+    public int rebuild() {
+        if (!enabled) {
+            return 0;
+        }
+        synchronized (this) {
+            if (rebuilding != null) {
+                throw new IllegalStateException("Custom address index is being rebuilt already");
+            }
+            rebuilding = new Segment();
+            writtenWhileRebuilding = new HashSet<>();
+        }
+        try {
+            for (int pageNumber = 0; ; pageNumber++) {
+                List<UavPostalCachedObject> page = uavCacheService.findCustomByParams(rebuildPageSize, pageNumber, SearchAddressType.ALL,
+                        null, null, null, null, null).getResult();
+                synchronized (this) {
+                    for (UavPostalCachedObject uavPostalCachedObject : page) {
+                        if (!writtenWhileRebuilding.contains(uavPostalCachedObject.getUid())) {
+                            rebuilding.put(uavPostalCachedObject, snapshot(uavPostalCachedObject));
+                        }
+                    }
+                }
+                if (page.size() < rebuildPageSize) {
+                    break;
+                }
+            }
+            synchronized (this) {
+                current = rebuilding;
+                ready = true;
+                log.info("Custom address index is built with " + current.size() + " addresses");
+                return current.size();
+            }
+        } finally {
+            synchronized (this) {
+                rebuilding = null;
+                writtenWhileRebuilding = null;
+            }
+        }
+    }
+
+    /**
+     * Indexes the address as it is now, or removes it from the index if it is not a custom address anymore.
+     */
+    public synchronized void update(UavPostalCachedObject uavPostalCachedObject) {
+        if (!enabled || uavPostalCachedObject == null || uavPostalCachedObject.getUid() == null) {
+            return;
+        }
+        byte[] snapshot = snapshot(uavPostalCachedObject);
+        current.put(uavPostalCachedObject, snapshot);
+        if (rebuilding != null) {
+            rebuilding.put(uavPostalCachedObject, snapshot);
+            writtenWhileRebuilding.add(uavPostalCachedObject.getUid());
+        }
+    }
+
+    public synchronized void remove(String uid) {
+        if (!enabled || uid == null) {
+            return;
+        }
+        current.remove(uid);
+        if (rebuilding != null) {
+            rebuilding.remove(uid);
+            writtenWhileRebuilding.add(uid);
+        }
+    }
+
+    /**
+     * Custom addresses matching all given fields, in UID order, as they were indexed: at most <code>limit</code> of
+     * the ones following <code>afterUid</code>, the first <code>skip</code> of them left out. Country, state and zip
+     * must be equal, city and street must contain the given value, case and extra whitespace are ignored.
+     *
+     * @param afterUid UID the result follows, <code>null</code> to search from the first address
+     */
+    public List<UavPostalCachedObject> search(String country, String state, String city, String zip, String fullStreetAddress,
+                                              String afterUid, int skip, int limit) {
+        List<byte[]> snapshots;
+        synchronized (this) {
+            snapshots = current.search(normalize(country), normalize(state), normalize(city), normalize(zip),
+                    normalize(fullStreetAddress), afterUid, skip, limit);
+        }
+        // every caller gets its own copies, they are modified on the way to a client
+        List<UavPostalCachedObject> result = new ArrayList<>(snapshots.size());
+        for (byte[] snapshot : snapshots) {
+            result.add(serializer.deserialize(snapshot));
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return current.size();
+    }
+
+    private byte[] snapshot(UavPostalCachedObject uavPostalCachedObject) {
+        boolean indexed = uavPostalCachedObject.getPostalValidationResult() != null
+                && BooleanUtils.isTrue(uavPostalCachedObject.getIsCustomAddress());
+        return indexed ? serializer.serialize(uavPostalCachedObject) : null;
+    }
+
+    private static String normalize(String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        return TextNormalizer.normalizeKey(value);
+    }
+
+    private static class Document {
+        private final String uid;
+        private final byte[] snapshot;
+        private final String country;
+        private final String state;
+        private final String city;
+        private final String zip;
+        private final String street;
+
+        private Document(String uid, byte[] snapshot, UavPostalValidationResult result) {
+            this.uid = uid;
+            this.snapshot = snapshot;
+            this.country = normalize(result.getCountry());
+            this.state = normalize(result.getState());
+            this.city = normalize(result.getCity());
+            this.zip = normalize(result.getZip());
+            this.street = normalize(StringUtils.joinWith(" ", StringUtils.defaultString(result.getAddressLine1()),
+                    StringUtils.defaultString(result.getAddressLine2()), StringUtils.defaultString(result.getAddressLine3())));
+        }
+
+        private boolean matches(String country, String state, String city, String zip, String street) {
+            return (country == null || country.equals(this.country))
+                    && (state == null || state.equals(this.state))
+                    && (zip == null || zip.equals(this.zip))
+                    && (city == null || (this.city != null && this.city.contains(city)))
+                    && (street == null || (this.street != null && this.street.contains(street)));
+        }
+    }
+
+    /**
+     * Documents and posting lists. Document numbers only grow, so every posting list is sorted.
+     */
+    private static class Segment {
+        private final List<Document> documents = new ArrayList<>();
+        private final BitSet deleted = new BitSet();
+        // live documents in UID order
+        private final TreeMap<String, Integer> documentsByUid = new TreeMap<>();
+        private final Map<String, PostingList> byCountry = new HashMap<>();
+        private final Map<String, PostingList> byState = new HashMap<>();
+        private final Map<String, PostingList> byZip = new HashMap<>();
+        private final Map<String, PostingList> cityGrams = new HashMap<>();
+        private final Map<String, PostingList> streetGrams = new HashMap<>();
+
+        /**
+         * @param snapshot snapshot of the entry, <code>null</code> if it is not a custom address
+         */
+        private void put(UavPostalCachedObject uavPostalCachedObject, byte[] snapshot) {
+            remove(uavPostalCachedObject.getUid());
+            if (snapshot == null) {
+                return;
+            }
+            add(new Document(uavPostalCachedObject.getUid(), snapshot, uavPostalCachedObject.getPostalValidationResult()));
+        }
+
+        private void add(Document document) {
+            int number = documents.size();
+            documents.add(document);
+            documentsByUid.put(document.uid, number);
+            post(byCountry, document.country, number);
+            post(byState, document.state, number);
+            post(byZip, document.zip, number);
+            for (String gram : grams(document.city)) {
+                post(cityGrams, gram, number);
+            }
+            for (String gram : grams(document.street)) {
+                post(streetGrams, gram, number);
+            }
+        }
+
+        private void remove(String uid) {
+            Integer number = documentsByUid.remove(uid);
+            if (number == null) {
+                return;
+            }
+            deleted.set(number);
+            if (deleted.cardinality() > documentsByUid.size() && deleted.cardinality() > 1000) {
+                compact();
+            }
+        }
+
+        private void compact() {
+            List<Document> live = new ArrayList<>(documentsByUid.size());
+            for (int number = 0; number < documents.size(); number++) {
+                if (!deleted.get(number)) {
+                    live.add(documents.get(number));
+                }
+            }
+            documents.clear();
+            deleted.clear();
+            documentsByUid.clear();
+            byCountry.clear();
+            byState.clear();
+            byZip.clear();
+            cityGrams.clear();
+            streetGrams.clear();
+            live.forEach(this::add);
+        }
+
+        private List<byte[]> search(String country, String state, String city, String zip, String street,
+                                    String afterUid, int skip, int limit) {
+            if (limit <= 0) {
+                return Collections.emptyList();
+            }
+            PostingList candidates = null;
+            candidates = shortest(candidates, exact(byCountry, country));
+            candidates = shortest(candidates, exact(byState, state));
+            candidates = shortest(candidates, exact(byZip, zip));
+            for (String gram : grams(city)) {
+                candidates = shortest(candidates, cityGrams.getOrDefault(gram, PostingList.EMPTY));
+            }
+            for (String gram : grams(street)) {
+                candidates = shortest(candidates, streetGrams.getOrDefault(gram, PostingList.EMPTY));
+            }
+
+            List<byte[]> snapshots = new ArrayList<>(Math.min(limit, 1024));
+            long wanted = (long) skip + limit;
+            if (candidates != null && candidates.size <= Math.max(MIN_SORTED_CANDIDATES, wanted * CANDIDATES_PER_RESULT)) {
+                List<Document> found = new ArrayList<>();
+                for (int i = 0; i < candidates.size; i++) {
+                    int number = candidates.numbers[i];
+                    Document document = documents.get(number);
+                    if (!deleted.get(number) && (afterUid == null || document.uid.compareTo(afterUid) > 0)
+                            && document.matches(country, state, city, zip, street)) {
+                        found.add(document);
+                    }
+                }
+                found.sort(Comparator.comparing(document -> document.uid));
+                int to = (int) Math.min(wanted, found.size());
+                for (int i = Math.min(skip, to); i < to; i++) {
+                    snapshots.add(found.get(i).snapshot);
+                }
+                return snapshots;
+            }
+
+            Map<String, Integer> following = afterUid == null ? documentsByUid : documentsByUid.tailMap(afterUid, false);
+            int skipped = 0;
+            for (Integer number : following.values()) {
+                Document document = documents.get(number);
+                if (document.matches(country, state, city, zip, street)) {
+                    if (skipped < skip) {
+                        skipped++;
+                    } else {
+                        snapshots.add(document.snapshot);
+                        if (snapshots.size() == limit) {
+                            break;
+                        }
+                    }
+                }
+            }
+            return snapshots;
+        }
+
+        private int size() {
+            return documentsByUid.size();
+        }
+
+        private static PostingList exact(Map<String, PostingList> postings, String value) {
+            return value == null ? null : postings.getOrDefault(value, PostingList.EMPTY);
+        }
+
+        private static void post(Map<String, PostingList> postings, String value, int number) {
+            if (value != null) {
+                postings.computeIfAbsent(value, key -> new PostingList()).add(number);
+            }
+        }
+
+        private static PostingList shortest(PostingList left, PostingList right) {
+            if (right == null) {
+                return left;
+            }
+            return left == null || right.size < left.size ? right : left;
+        }
+
+        private static Set<String> grams(String value) {
+            if (value == null || value.length() < GRAM_LENGTH) {
+                return Collections.emptySet();
+            }
+            Set<String> grams = new LinkedHashSet<>();
+            for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+                grams.add(value.substring(i, i + GRAM_LENGTH));
+            }
+            return grams;
+        }
+    }
+
+    /**
+     * Growing sorted array of document numbers.
+     */
+    private static class PostingList {
+        private static final PostingList EMPTY = new PostingList();
+
+        private int[] numbers = new int[4];
+        private int size;
+
+        private void add(int number) {
+            if (size > 0 && numbers[size - 1] == number) {
+                return;
+            }
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+            }
+            numbers[size++] = number;
+        }
+    }
+}
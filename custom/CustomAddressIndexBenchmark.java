@@ -0,0 +1,111 @@
+package net.intermedia.uav.postal.custom;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.postal.UavPostalCachedObjectSerializer;
+import net.intermedia.uav.postal.UavPostalValidationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link CustomAddressIndex} searches over a seeded set of custom addresses, one million by default.
+ * Every search returns whole entries, so the numbers include reading the snapshots of a page. <code>street</code>
+ * and <code>city</code> are selective and answered from posting lists, <code>country</code> matches almost every
+ * address and walks documents in UID order, <code>deepPage</code> is the same walk skipping the first 10000 matches.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@State(Scope.Benchmark)
+public class CustomAddressIndexBenchmark {
+
+    private static final long SEED = 20_240_611L;
+
+    private static final String[] STREETS = {"MAIN", "OAK", "PINE", "MAPLE", "CEDAR", "ELM", "WASHINGTON", "LAKE", "HILL",
+            "PARK", "SUNSET", "RIDGE", "MILL", "CHURCH", "RIVER"};
+    private static final String[] SUFFIXES = {"ST", "AVE", "RD", "BLVD", "DR", "LN", "CT", "WAY"};
+    private static final String[][] CITIES = {{"SUNNYVALE", "CA", "94085"}, {"AUSTIN", "TX", "78701"},
+            {"CLEARWATER", "FL", "33755"}, {"DENVER", "CO", "80202"}, {"SEATTLE", "WA", "98101"},
+            {"ALBANY", "NY", "12207"}, {"COLUMBUS", "OH", "43215"}, {"PHOENIX", "AZ", "85004"}};
+
+    @Param({"1000000"})
+    private int addresses;
+
+    @Param({"100"})
+    private int pageSize;
+
+    private CustomAddressIndex index;
+
+    @Setup
+    public void setUp() {
+        index = new CustomAddressIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "serializer", new UavPostalCachedObjectSerializer(new ObjectMapper()));
+        ReflectionTestUtils.setField(index, "meterRegistry", new SimpleMeterRegistry());
+
+        Random random = new Random(SEED);
+        for (int i = 0; i < addresses; i++) {
+            String[] city = CITIES[random.nextInt(CITIES.length)];
+            UavPostalValidationResult result = new UavPostalValidationResult();
+            result.setAddressLine1((1 + random.nextInt(9999)) + " " + STREETS[random.nextInt(STREETS.length)] + " "
+                    + SUFFIXES[random.nextInt(SUFFIXES.length)]);
+            result.setAddressLine2(random.nextInt(4) == 0 ? "SUITE " + (100 + random.nextInt(900)) : null);
+            result.setCity(city[0]);
+            result.setState(city[1]);
+            result.setZip(city[2]);
+            result.setCountry("US");
+
+            UavPostalCachedObject uavPostalCachedObject = new UavPostalCachedObject();
+            uavPostalCachedObject.setUid(String.format("uid-%08d", i));
+            uavPostalCachedObject.setIsCustomAddress(true);
+            uavPostalCachedObject.setPostalValidationResult(result);
+            index.update(uavPostalCachedObject);
+        }
+    }
+
+    @Benchmark
+    public List<UavPostalCachedObject> street() {
+        int number = 1 + ThreadLocalRandom.current().nextInt(9999);
+        return index.search(null, null, null, null, number + " " + STREETS[number % STREETS.length], null, 0, pageSize);
+    }
+
+    @Benchmark
+    public List<UavPostalCachedObject> city() {
+        String[] city = CITIES[ThreadLocalRandom.current().nextInt(CITIES.length)];
+        return index.search("US", city[1], city[0].substring(1, 6), null, null, null, 0, pageSize);
+    }
+
+    @Benchmark
+    public List<UavPostalCachedObject> country() {
+        return index.search("US", null, null, null, null, null, 0, pageSize);
+    }
+
+    @Benchmark
+    public List<UavPostalCachedObject> nextPage() {
+        String afterUid = String.format("uid-%08d", ThreadLocalRandom.current().nextInt(addresses));
+        return index.search("US", null, null, null, null, afterUid, 0, pageSize);
+    }
+
+    @Benchmark
+    public List<UavPostalCachedObject> deepPage() {
+        return index.search("US", null, null, null, null, null, 10000, pageSize);
+    }
+}
@@ -0,0 +1,143 @@
+package net.intermedia.uav.postal.custom;
+
+import net.intermedia.uav.pojo.postal.CustomAddressRequest;
+import net.intermedia.uav.postal.UavPostalValidationResult;
+import net.intermedia.uav.postal.custom.handlers.CustomAddressHandler;
+import net.intermedia.uav.postal.custom.handlers.CustomAddressHandlerFactoryImpl;
+import net.intermedia.uav.postal.custom.handlers.international.AUCustomAddressHandler;
+import net.intermedia.uav.postal.custom.handlers.international.DECustomAddressHandler;
+import net.intermedia.uav.postal.custom.handlers.international.ITCustomAddressHandler;
+import net.intermedia.uav.postal.custom.handlers.international.JPCustomAddressHandler;
+import net.intermedia.uav.postal.custom.handlers.international.NLCustomAddressHandler;
+import net.intermedia.uav.postal.custom.handlers.international.UKCustomAddressHandler;
+import net.intermedia.uav.postal.custom.handlers.us.CaCustomAddressHandler;
+import net.intermedia.uav.postal.custom.handlers.us.UsCustomAddressHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles of {@link CustomAddressServiceImpl#createCustomAddress}: the mapper and all
+ * handler steps of the country, over a seeded corpus of requests. <code>poBox</code> requests carry a PO box number,
+ * <code>pmb</code> ones a private mailbox, which only US and PR keep. Run {@link #main} to get allocation rates
+ * from the gc profiler along with the scores, p99 is reported by the sample mode.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CustomAddressPipelineBenchmark {
+
+    private static final long SEED = 20_240_611L;
+    private static final int REQUESTS = 1024;
+
+    private static final String[] STREETS = {"Main", "Oak", "Church", "High", "Station", "Hauptstraße", "Via Roma",
+            "Kerkstraat", "George", "Queen"};
+    private static final String[] SUFFIXES = {"St", "Ave", "Rd", "Blvd", "Dr"};
+    private static final String[] UNIT_TYPES = {"Apt", "Ste", "Unit"};
+    private static final String[] JP_LINES = {"千代田区丸の内１－１－１", "港区六本木６－１０－１", "大阪市北区梅田３－１－３",
+            "札幌市中央区北５条西２－５", "福岡市博多区博多駅中央街１－１"};
+    private static final String[] JP_BUILDINGS = {"ＡＢＣビル ３階", "六本木ヒルズ森タワー", "グランフロント大阪 北館", ""};
+
+    private static final String[][] CITIES = {
+            {"US", "Sunnyvale", "CA", "94085"}, {"US", "Austin", "TX", "78701"},
+            {"PR", "San Juan", "PR", "00901"}, {"PR", "Ponce", "PR", "00716"},
+            {"CA", "Toronto", "ON", "M5H 2N2"}, {"CA", "Vancouver", "BC", "V6B 1A1"},
+            {"UK", "London", "", "SW1A 1AA"}, {"UK", "Manchester", "", "M1 1AE"},
+            {"NL", "Amsterdam", "", "1012 JS"}, {"NL", "Utrecht", "", "3511 AA"},
+            {"DE", "Berlin", "", "10117"}, {"DE", "München", "", "80331"},
+            {"IT", "Roma", "RM", "00184"}, {"IT", "Milano", "MI", "20121"},
+            {"AU", "Sydney", "NSW", "2000"}, {"AU", "Melbourne", "VIC", "3000"},
+            {"JP", "東京都", "13", "100-0005"}, {"JP", "大阪府", "27", "530-0001"}};
+
+    @Param({"US", "PR", "CA", "UK", "NL", "DE", "IT", "AU", "JP"})
+    private String country;
+
+    @Param({"plain", "poBox", "pmb"})
+    private String variant;
+
+    private CustomAddressServiceImpl customAddressService;
+    private CustomAddressRequest[] requests;
+
+    @Setup
+    public void setUp() {
+        List<CustomAddressHandler> handlers = Arrays.asList(new UsCustomAddressHandler(), new CaCustomAddressHandler(),
+                new UKCustomAddressHandler(), new NLCustomAddressHandler(), new DECustomAddressHandler(),
+                new ITCustomAddressHandler(), new AUCustomAddressHandler(), new JPCustomAddressHandler());
+        // only the mapper and the handlers take part in creating an address
+        customAddressService = new CustomAddressServiceImpl(new CustomAddressRequestToUavPostalValidationResultMapperImpl(),
+                new CustomAddressHandlerFactoryImpl(handlers), null, null, null, null, null);
+
+        Random random = new Random(SEED);
+        requests = new CustomAddressRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            requests[i] = request(random);
+        }
+    }
+
+    @Benchmark
+    public UavPostalValidationResult createCustomAddress() {
+        CustomAddressRequest request = requests[ThreadLocalRandom.current().nextInt(REQUESTS)];
+        return customAddressService.createCustomAddress(request);
+    }
+
+    private CustomAddressRequest request(Random random) {
+        String[] city;
+        do {
+            city = CITIES[random.nextInt(CITIES.length)];
+        } while (!city[0].equals(country));
+
+        CustomAddressRequest request = new CustomAddressRequest();
+        request.setCountry(country);
+        request.setCity(city[1]);
+        request.setState(city[2]);
+        request.setZip(city[3]);
+        if ("JP".equals(country)) {
+            request.setAddressLine1(JP_LINES[random.nextInt(JP_LINES.length)]);
+            request.setAddressLine2(JP_BUILDINGS[random.nextInt(JP_BUILDINGS.length)]);
+        } else {
+            request.setHouseNumber(String.valueOf(1 + random.nextInt(9999)));
+            request.setStreetName(STREETS[random.nextInt(STREETS.length)]);
+            request.setStreetSuffix(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+            if (random.nextInt(3) == 0) {
+                request.setUnitType(UNIT_TYPES[random.nextInt(UNIT_TYPES.length)]);
+                request.setUnitNumber(String.valueOf(1 + random.nextInt(500)));
+            }
+        }
+        if ("poBox".equals(variant)) {
+            request.setIsPostBox(true);
+            request.setPoBoxNumber(String.valueOf(100 + random.nextInt(9900)));
+        } else if ("pmb".equals(variant)) {
+            request.setPmbPrefix(random.nextBoolean() ? "PMB" : "#");
+            request.setPmbNumber(String.valueOf(1 + random.nextInt(999)));
+        }
+        return request;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CustomAddressPipelineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
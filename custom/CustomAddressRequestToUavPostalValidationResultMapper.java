@@ -4,20 +4,32 @@ import net.intermedia.uav.country.Country;
 import net.intermedia.uav.country.CountryState;
 import net.intermedia.uav.pojo.postal.CustomAddressRequest;
 import net.intermedia.uav.pojo.postal.PostalValidationOutputLanguage;
+import net.intermedia.uav.postal.TextNormalizer;
 import net.intermedia.uav.postal.UavPostalValidationResult;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
+import net.intermedia.uav.postal.CountryResolver;
 import org.mapstruct.AfterMapping;
+import org.mapstruct.Context;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 import org.mapstruct.MappingTarget;
 import org.mapstruct.Named;
 import org.mapstruct.NullValuePropertyMappingStrategy;
+import org.springframework.beans.factory.annotation.Value;
 
 import static net.intermedia.uav.pojo.postal.PostalValidationResult.Result.AV24;
 
 @Mapper(componentModel = "spring")
 public abstract class CustomAddressRequestToUavPostalValidationResultMapper {
+
+    /**
+     * Whether full-width digits, letters and spaces of JP address lines are folded to their ASCII forms with NFKC.
+     * Off by default, the lines are stored as entered apart from whitespace.
+     */
+    @Value("${uav.postal.custom.jp-fold-compatibility-characters:false}")
+    protected boolean foldJapaneseCompatibilityCharacters;
+
     @Mapping(source = "country", target = "country", qualifiedByName = "normalizedString")
     @Mapping(source = "houseNumber", target = "houseNumber", qualifiedByName = "normalizedString")
     @Mapping(source = "preDirectional", target = "preDir", qualifiedByName = "normalizedString")
@@ -39,7 +51,8 @@ public abstract class CustomAddressRequestToUavPostalValidationResultMapper {
     @Mapping(source = "poBoxNumber", target = "postBox", qualifiedByName = "normalizedString")
     @Mapping(source = "request", target = "addressLine1", qualifiedByName = "fillJPAddressLine1")
     @Mapping(source = "request", target = "addressLine2", qualifiedByName = "fillJPAddressLine2")
-    public abstract UavPostalValidationResult mapCustomAddressRequestToUavPostalValidationResult(CustomAddressRequest request);
+    public abstract UavPostalValidationResult mapCustomAddressRequestToUavPostalValidationResult(CustomAddressRequest request,
+                                                                                                @Context Country country);
 
     @AfterMapping
     protected void addResultCodes(@MappingTarget UavPostalValidationResult.Builder builder){
@@ -47,20 +60,18 @@ public abstract class CustomAddressRequestToUavPostalValidationResultMapper {
     }
 
     @Named("checkForPmbPrefix")
-    static String checkCountryForPmbPrefix(CustomAddressRequest request) {
-        return checkCountryForParameter(request.getCountry(), request.getPmbPrefix());
+    static String checkCountryForPmbPrefix(CustomAddressRequest request, @Context Country country) {
+        return checkCountryForParameter(country, request.getPmbPrefix());
     }
 
     @Named("checkForPmbNumber")
-    static String checkCountryForPmbNumber(CustomAddressRequest request) {
-        return checkCountryForParameter(request.getCountry(), request.getPmbNumber());
+    static String checkCountryForPmbNumber(CustomAddressRequest request, @Context Country country) {
+        return checkCountryForParameter(country, request.getPmbNumber());
     }
 
     @Named("checkIsPostBoxWithPmb")
-    static Boolean checkIsPostBoxWithPmb(CustomAddressRequest request) {
-        String country = request.getCountry();
-        Country foundCountry = Country.find(country);
-        if (foundCountry != Country.US && foundCountry != Country.PR &&
+    static Boolean checkIsPostBoxWithPmb(CustomAddressRequest request, @Context Country country) {
+        if (country != Country.US && country != Country.PR &&
                 (StringUtils.isNotBlank(request.getPmbPrefix()) || StringUtils.isNotBlank(request.getPmbNumber()))
                 && BooleanUtils.isTrue(request.getIsPostBox())) {
             return false;
@@ -69,50 +80,41 @@ public abstract class CustomAddressRequestToUavPostalValidationResultMapper {
     }
 
     @Named("fillJPAddressLine1")
-    static String fillJPAddressLine1(CustomAddressRequest request) {
-        String country = request.getCountry();
-        Country foundCountry = Country.find(country);
-        if (foundCountry == Country.JP) {
-            return normalize(request.getAddressLine1());
+    String fillJPAddressLine1(CustomAddressRequest request, @Context Country country) {
+        if (country == Country.JP) {
+            return TextNormalizer.normalize(request.getAddressLine1(), foldJapaneseCompatibilityCharacters);
         }
         return "";
     }
 
     @Named("fillJPAddressLine2")
-    static String fillJPAddressLine2(CustomAddressRequest request) {
-        String country = request.getCountry();
-        Country foundCountry = Country.find(country);
-        if (foundCountry == Country.JP) {
-            return normalize(request.getAddressLine2());
+    String fillJPAddressLine2(CustomAddressRequest request, @Context Country country) {
+        if (country == Country.JP) {
+            return TextNormalizer.normalize(request.getAddressLine2(), foldJapaneseCompatibilityCharacters);
         }
         return "";
     }
 
     @Named("fillCity")
-    static String fillCity(CustomAddressRequest request) {
-        String country = request.getCountry();
-        Country foundCountry = Country.find(country);
-        if (!(foundCountry == Country.JP && request.getOutputLanguage() != PostalValidationOutputLanguage.ENGLISH)) {
+    static String fillCity(CustomAddressRequest request, @Context Country country) {
+        if (!(country == Country.JP && request.getOutputLanguage() != PostalValidationOutputLanguage.ENGLISH)) {
             return normalize(request.getCity());
         }
         return "";
     }
 
     @Named("fillState")
-    static String fillState(CustomAddressRequest request) {
-        String country = request.getCountry();
-        Country foundCountry = Country.find(country);
+    static String fillState(CustomAddressRequest request, @Context Country country) {
         String state = request.getState();
-        CountryState countryState = CountryState.find(foundCountry, state);
+        CountryState countryState = CountryResolver.findState(country, state);
         if (countryState.isFound()){
             return countryState.getStateCode();
         } else return state;
     }
 
 
-    static String checkCountryForParameter(String country, String parameter) {
-        Country foundCountry = Country.find(country);
-        if (foundCountry == Country.US || foundCountry == Country.PR) {
+    static String checkCountryForParameter(Country country, String parameter) {
+        if (country == Country.US || country == Country.PR) {
             return normalize(parameter);
         } else return "";
     }
@@ -123,8 +125,7 @@ public abstract class CustomAddressRequestToUavPostalValidationResultMapper {
     }
 
     static String normalize(String sourceString) {
-        if (sourceString == null) return null;
-        return sourceString.replaceAll("\\t", " ").replaceAll("\\s{2,}", " ").trim();
+        return TextNormalizer.normalize(sourceString);
     }
 
 
@@ -6,8 +6,10 @@ import net.intermedia.uav.pojo.postal.DeleteAddressResult;
 import net.intermedia.uav.pojo.postal.EditShippingValidResult;
 import net.intermedia.uav.postal.UavPostalValidationResult;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface CustomAddressService {
 
@@ -22,4 +24,25 @@ public interface CustomAddressService {
 
     List<DeleteAddressResult> deleteCustomAddresses(List<String> uids);
     List<EditShippingValidResult> editShippingValidOfAddresses(Map<String, Boolean> uidShippingValidMap);
+
+    /**
+     * Deletes custom addresses in chunks that run in parallel. The outcome of every chunk is passed to
+     * <code>chunkConsumer</code> as soon as the chunk completes; a failed chunk does not stop the others.
+     * A retry with the same <code>idempotencyKey</code> does not delete the chunks that already succeeded again.
+     */
+    void deleteCustomAddresses(List<String> uids, String idempotencyKey,
+                               Consumer<CustomAddressChunkResult<DeleteAddressResult>> chunkConsumer);
+
+    /**
+     * Edits shipping flags of custom addresses in chunks, the same way as {@link #deleteCustomAddresses(List, String, Consumer)}.
+     */
+    void editShippingValidOfAddresses(Map<String, Boolean> uidShippingValidMap, String idempotencyKey,
+                                      Consumer<CustomAddressChunkResult<EditShippingValidResult>> chunkConsumer);
+
+    /**
+     * Creates custom addresses from the rows. Rows are mapped in parallel and written in batches, a row whose address
+     * is already in the cache is not created. Results are passed to <code>resultConsumer</code> in the order of rows
+     * as soon as their batch is written.
+     */
+    void importCustomAddresses(Iterator<CustomAddressImportRow> rows, Consumer<CustomAddressImportResult> resultConsumer);
 }
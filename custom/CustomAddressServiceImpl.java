@@ -4,18 +4,37 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import net.intermedia.uav.cache.UavCacheService;
 import net.intermedia.uav.cache.UavPostalCachedObject;
+import net.intermedia.uav.country.Country;
 import net.intermedia.uav.exceptions.NotFoundException;
 import net.intermedia.uav.pojo.postal.CustomAddressRequest;
 import net.intermedia.uav.pojo.postal.DeleteAddressResult;
 import net.intermedia.uav.pojo.postal.EditShippingValidResult;
+import net.intermedia.uav.postal.CountryResolver;
+import net.intermedia.uav.postal.UavCacheWriteBehindQueue;
+import net.intermedia.uav.postal.UavPostalNearCache;
 import net.intermedia.uav.postal.UavPostalValidationResult;
 import net.intermedia.uav.postal.custom.handlers.CustomAddressHandler;
 import net.intermedia.uav.postal.custom.handlers.CustomAddressHandlerFactory;
 import org.apache.commons.lang3.BooleanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @Log4j2
@@ -29,14 +48,41 @@ public class CustomAddressServiceImpl implements CustomAddressService {
 
     private final UavCacheService uavCacheService;
 
+    private final UavPostalNearCache uavPostalNearCache;
+
+    private final CustomAddressIndex customAddressIndex;
+
+    private final CustomAddressBatchExecutor customAddressBatchExecutor;
+
+    private final UavCacheWriteBehindQueue uavCacheWriteBehindQueue;
+
+    @Value("${uav.postal.custom.import.batch-size:200}")
+    private int importBatchSize;
+
+    @Value("${uav.postal.custom.import.parallelism:8}")
+    private int importParallelism;
+
+    private ExecutorService importExecutor;
+
+    @PostConstruct
+    void initImportExecutor() {
+        importExecutor = Executors.newFixedThreadPool(importParallelism, new CustomizableThreadFactory("uav-custom-import-"));
+    }
+
+    @PreDestroy
+    void shutdownImportExecutor() {
+        importExecutor.shutdown();
+    }
+
     @Override
     public UavPostalValidationResult createCustomAddress(CustomAddressRequest customAddressRequest) {
         return createValidationResultWithCustomAddress(customAddressRequest);
     }
 
     private UavPostalValidationResult createValidationResultWithCustomAddress(CustomAddressRequest customAddressRequest) {
-        CustomAddressHandler customAddressHandler = customAddressHandlerFactory.getHandler(customAddressRequest.getCountry());
-        UavPostalValidationResult uavPostalValidationResult = mapper.mapCustomAddressRequestToUavPostalValidationResult(customAddressRequest);
+        Country country = CountryResolver.findCountry(customAddressRequest.getCountry());
+        CustomAddressHandler customAddressHandler = customAddressHandlerFactory.getHandler(country);
+        UavPostalValidationResult uavPostalValidationResult = mapper.mapCustomAddressRequestToUavPostalValidationResult(customAddressRequest, country);
         customAddressHandler.populateOtherFields(uavPostalValidationResult);
         customAddressHandler.fillStateName(uavPostalValidationResult);
         customAddressHandler.fillAddressLine1InUavPostalValidationResult(uavPostalValidationResult);
@@ -48,7 +94,10 @@ public class CustomAddressServiceImpl implements CustomAddressService {
 
     @Override
     public CustomAddressRequest enrichCustomAddressRequestWithAddressLinesAndStateCode(CustomAddressRequest customAddressRequest) {
-        UavPostalValidationResult validationResultWithCustomAddress = createValidationResultWithCustomAddress(customAddressRequest);
+        return enrich(customAddressRequest, createValidationResultWithCustomAddress(customAddressRequest));
+    }
+
+    private static CustomAddressRequest enrich(CustomAddressRequest customAddressRequest, UavPostalValidationResult validationResultWithCustomAddress) {
         customAddressRequest.setAddressLine1(validationResultWithCustomAddress.getAddressLine1());
         customAddressRequest.setAddressLine2(validationResultWithCustomAddress.getAddressLine2());
         customAddressRequest.setState(validationResultWithCustomAddress.getState());
@@ -61,6 +110,8 @@ public class CustomAddressServiceImpl implements CustomAddressService {
         UavPostalValidationResult postalValidationResult;
         if (uavPostalCachedObject != null && uavPostalCachedObject.getPostalValidationResult() != null) {
             uavCacheService.cleanUavPostalCachedObject(uavPostalCachedObject);
+            uavPostalNearCache.invalidate(uavPostalCachedObject);
+            customAddressIndex.remove(uavPostalCachedObject.getUid());
             postalValidationResult = uavPostalCachedObject.getPostalValidationResult();
         } else {
             throw new NotFoundException("Couldn't find address to clear with parameters " + customAddressRequest);
@@ -71,7 +122,10 @@ public class CustomAddressServiceImpl implements CustomAddressService {
 
     @Override
     public UavPostalValidationResult clearCustomAddressValidationByUID(String uid) {
-        return uavCacheService.clearCustomAddressValidationByUID(uid);
+        UavPostalValidationResult postalValidationResult = uavCacheService.clearCustomAddressValidationByUID(uid);
+        uavPostalNearCache.invalidate(uid);
+        customAddressIndex.remove(uid);
+        return postalValidationResult;
     }
 
     @Override
@@ -81,17 +135,66 @@ public class CustomAddressServiceImpl implements CustomAddressService {
         currentUavPostalCachedObject.getPostalValidationResult().setShippingValid(shippingValid);
         currentUavPostalCachedObject.setPostalValidationResultUpdated(true);
         uavCacheService.updateUavPostalCachedObject(currentUavPostalCachedObject);
+        uavPostalNearCache.invalidate(currentUavPostalCachedObject);
+        customAddressIndex.update(currentUavPostalCachedObject);
         return currentUavPostalCachedObject;
     }
 
     @Override
     public List<DeleteAddressResult> deleteCustomAddresses(List<String> uids) {
-        return uavCacheService.batchDeleteUavPostalCachedObjectByUids(uids);
+        return collectChunks(uids, chunkConsumer -> deleteCustomAddresses(uids, null, chunkConsumer));
+    }
+
+    @Override
+    public void deleteCustomAddresses(List<String> uids, String idempotencyKey,
+                                      Consumer<CustomAddressChunkResult<DeleteAddressResult>> chunkConsumer) {
+        customAddressBatchExecutor.execute("delete", uids, uid -> null, idempotencyKey, chunk -> {
+            // a queued validation must not write a deleted address back
+            chunk.forEach(uavCacheWriteBehindQueue::discard);
+            List<DeleteAddressResult> deleteAddressResults = uavCacheService.batchDeleteUavPostalCachedObjectByUids(chunk);
+            chunk.forEach(uavPostalNearCache::invalidate);
+            chunk.forEach(customAddressIndex::remove);
+            return deleteAddressResults;
+        }, chunkConsumer);
     }
 
     @Override
     public List<EditShippingValidResult> editShippingValidOfAddresses(Map<String, Boolean> uidShippingValidMap) {
-        return uavCacheService.batchEditShippingValid(uidShippingValidMap);
+        return collectChunks(new ArrayList<>(uidShippingValidMap.keySet()),
+                chunkConsumer -> editShippingValidOfAddresses(uidShippingValidMap, null, chunkConsumer));
+    }
+
+    @Override
+    public void editShippingValidOfAddresses(Map<String, Boolean> uidShippingValidMap, String idempotencyKey,
+                                             Consumer<CustomAddressChunkResult<EditShippingValidResult>> chunkConsumer) {
+        customAddressBatchExecutor.execute("edit-shipping-valid", new ArrayList<>(uidShippingValidMap.keySet()),
+                uidShippingValidMap::get, idempotencyKey, chunk -> {
+                    Map<String, Boolean> chunkShippingValidMap = new LinkedHashMap<>();
+                    chunk.forEach(uid -> chunkShippingValidMap.put(uid, uidShippingValidMap.get(uid)));
+                    chunk.forEach(uavCacheWriteBehindQueue::discard);
+                    List<EditShippingValidResult> editShippingValidResults = uavCacheService.batchEditShippingValid(chunkShippingValidMap);
+                    chunk.forEach(uavPostalNearCache::invalidate);
+                    return editShippingValidResults;
+                }, chunkConsumer);
+    }
+
+    /**
+     * Runs a chunked batch operation and returns the results of all chunks in the order of UIDs, as the operation
+     * returned them before it was chunked. Fails if any chunk failed, completed chunks are still applied.
+     */
+    private <T> List<T> collectChunks(List<String> uids, Consumer<Consumer<CustomAddressChunkResult<T>>> operation) {
+        List<CustomAddressChunkResult<T>> chunks = new ArrayList<>();
+        operation.accept(chunks::add);
+        chunks.sort(Comparator.comparingInt(CustomAddressChunkResult::getChunk));
+        List<String> errors = chunks.stream()
+                .filter(chunk -> chunk.getError() != null)
+                .map(chunk -> "chunk " + chunk.getChunk() + ": " + chunk.getError())
+                .collect(Collectors.toList());
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException(errors.size() + " of " + chunks.size() + " chunks of " + uids.size()
+                    + " addresses failed, " + String.join("; ", errors));
+        }
+        return chunks.stream().flatMap(chunk -> chunk.getResults().stream()).collect(Collectors.toList());
     }
 
     @Override
@@ -107,6 +210,83 @@ public class CustomAddressServiceImpl implements CustomAddressService {
         return currentUavPostalCachedObject;
     }
 
+    @Override
+    public void importCustomAddresses(Iterator<CustomAddressImportRow> rows, Consumer<CustomAddressImportResult> resultConsumer) {
+        List<CustomAddressImportRow> batch = new ArrayList<>(importBatchSize);
+        while (rows.hasNext()) {
+            batch.add(rows.next());
+            if (batch.size() == importBatchSize || !rows.hasNext()) {
+                importBatch(batch).forEach(resultConsumer);
+                batch.clear();
+            }
+        }
+    }
+
+    private List<CustomAddressImportResult> importBatch(List<CustomAddressImportRow> batch) {
+        // mapping and the conflict check of every row are independent, so they run in parallel
+        List<CompletableFuture<ImportedAddress>> preparations = batch.stream()
+                .map(row -> CompletableFuture.supplyAsync(() -> prepareImport(row), importExecutor))
+                .collect(Collectors.toList());
+        List<ImportedAddress> addresses = preparations.stream().map(CompletableFuture::join).collect(Collectors.toList());
+
+        // two rows of the batch may resolve to the same cache entry, the first one wins
+        Set<String> cacheKeys = new HashSet<>();
+        List<CompletableFuture<Void>> writes = new ArrayList<>(addresses.size());
+        for (ImportedAddress address : addresses) {
+            if (address.result != null) {
+                continue;
+            }
+            if (!cacheKeys.add(address.cachedObject.getCacheKey())) {
+                address.result = CustomAddressImportResult.failed(address.row.getNumber(),
+                        String.format("Record with key %s is already present in row above.", address.cachedObject.getCacheKey()));
+                continue;
+            }
+            writes.add(CompletableFuture.runAsync(() -> address.result = writeImport(address), importExecutor));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        return addresses.stream().map(address -> address.result).collect(Collectors.toList());
+    }
+
+    private ImportedAddress prepareImport(CustomAddressImportRow row) {
+        ImportedAddress address = new ImportedAddress(row);
+        if (row.getError() != null) {
+            address.result = CustomAddressImportResult.failed(row.getNumber(), row.getError());
+            return address;
+        }
+        try {
+            // the row is mapped once: the cache key is taken from the request enriched by the result that is imported
+            address.validationResult = createValidationResultWithCustomAddress(row.getRequest());
+            CustomAddressRequest customAddressRequest = enrich(row.getRequest(), address.validationResult);
+            address.cachedObject = uavCacheService.getUavPostalCachedObject(customAddressRequest);
+            if (address.cachedObject.getPostalValidationResult() != null) {
+                address.result = CustomAddressImportResult.failed(row.getNumber(),
+                        String.format("Record with key %s is already present.", address.cachedObject.getCacheKey()));
+            }
+        } catch (RuntimeException e) {
+            address.result = CustomAddressImportResult.failed(row.getNumber(), e.getMessage());
+        }
+        return address;
+    }
+
+    private CustomAddressImportResult writeImport(ImportedAddress address) {
+        try {
+            UavPostalCachedObject uavPostalCachedObject = address.cachedObject;
+            uavPostalCachedObject.setPostalValidationResult(address.validationResult);
+            uavPostalCachedObject.setIsCustomAddress(true);
+            uavPostalCachedObject.setPostalValidationResultUpdated(true);
+            UavPostalCachedObject updatedUavPostalCachedObject = uavCacheService.updateUavPostalCachedObject(uavPostalCachedObject);
+            if (updatedUavPostalCachedObject == null) {
+                updatedUavPostalCachedObject = uavPostalCachedObject;
+            }
+            uavPostalNearCache.invalidate(uavPostalCachedObject);
+            customAddressIndex.update(updatedUavPostalCachedObject);
+            return CustomAddressImportResult.created(address.row.getNumber(), updatedUavPostalCachedObject.getUid());
+        } catch (RuntimeException e) {
+            log.error("Couldn't import custom address of row " + address.row.getNumber(), e);
+            return CustomAddressImportResult.failed(address.row.getNumber(), e.getMessage());
+        }
+    }
+
     private UavPostalCachedObject getFromCacheCheckNotEmptyAndCustom(String uid) {
         UavPostalCachedObject uavPostalCachedObjectByUid = getFromCacheCheckEmpty(uid);
         checkCustom(uid, uavPostalCachedObjectByUid);
@@ -150,7 +330,18 @@ public class CustomAddressServiceImpl implements CustomAddressService {
         currentUavPostalCachedObject.setCacheKey(possibleExistingUavPostalCachedObject.getCacheKey());
         currentUavPostalCachedObject.setPostalValidationResultUpdated(true);
         uavCacheService.updateUavPostalCachedObject(currentUavPostalCachedObject);
+        uavPostalNearCache.invalidate(currentUavPostalCachedObject);
+        customAddressIndex.update(currentUavPostalCachedObject);
     }
 
+    private static class ImportedAddress {
+        private final CustomAddressImportRow row;
+        private UavPostalValidationResult validationResult;
+        private UavPostalCachedObject cachedObject;
+        private volatile CustomAddressImportResult result;
 
+        private ImportedAddress(CustomAddressImportRow row) {
+            this.row = row;
+        }
+    }
 }
@@ -1,10 +1,16 @@
 package net.intermedia.uav.postal.custom.handlers;
 
 import lombok.extern.log4j.Log4j2;
+import net.intermedia.uav.country.Country;
 import net.intermedia.uav.country.CountryState;
+import net.intermedia.uav.postal.CountryResolver;
 import net.intermedia.uav.postal.UavPostalValidationResult;
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
 @Log4j2
 public abstract class AbstractCustomAddressHandler implements CustomAddressHandler {
 
@@ -58,25 +64,25 @@ public abstract class AbstractCustomAddressHandler implements CustomAddressHandl
     @Override
     public void fillStateName(UavPostalValidationResult uavPostalValidationResult) {
         String state = uavPostalValidationResult.getState();
-        CountryState countryState = CountryState.find(uavPostalValidationResult.getCountry(), state);
+        CountryState countryState = CountryResolver.findState(uavPostalValidationResult.getCountry(), state);
         if (countryState.isFound()) {
             uavPostalValidationResult.setState(countryState.getStateCode());
             uavPostalValidationResult.setStateName(countryState.getStateName());
         }
     }
 
-    protected String getStateCodeOrDefault(String country, String state) {
-        CountryState countryState = CountryState.find(country, state);
-        return countryState.isFound() ? countryState.getStateCode() : state;
+    /**
+     * Field <code>stateCode</code> of address templates: the state code of the country or the state as is if it is unknown.
+     */
+    protected static Map<String, Function<UavPostalValidationResult, String>> stateCodeField(Country country) {
+        return Collections.singletonMap("stateCode", uavPostalValidationResult -> {
+            CountryState countryState = CountryResolver.findState(country, uavPostalValidationResult.getState());
+            return countryState.isFound() ? countryState.getStateCode() : uavPostalValidationResult.getState();
+        });
     }
 
     @Override
     public void fillFullAddress(UavPostalValidationResult uavPostalValidationResult) {
         uavPostalValidationResult.setFullAddress(generateFullAddress(uavPostalValidationResult));
     }
-
-    protected String normalize(String sourceString) {
-        if (sourceString == null) return null;
-        return sourceString.replaceAll("\\t", " ").replaceAll("\\s{2,}", " ").trim();
-    }
 }
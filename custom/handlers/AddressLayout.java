@@ -0,0 +1,54 @@
+package net.intermedia.uav.postal.custom.handlers;
+
+import net.intermedia.uav.postal.UavPostalValidationResult;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Full address layout of a country: one {@link AddressTemplate} per line, lines that render empty are left out.
+ */
+public final class AddressLayout {
+
+    private final AddressTemplate[] lines;
+    private final boolean upperCase;
+
+    private AddressLayout(AddressTemplate[] lines, boolean upperCase) {
+        this.lines = lines;
+        this.upperCase = upperCase;
+    }
+
+    public static AddressLayout compile(String... linePatterns) {
+        return compile(Collections.emptyMap(), linePatterns);
+    }
+
+    public static AddressLayout compile(Map<String, Function<UavPostalValidationResult, String>> extraFields, String... linePatterns) {
+        AddressTemplate[] lines = new AddressTemplate[linePatterns.length];
+        for (int i = 0; i < linePatterns.length; i++) {
+            lines[i] = AddressTemplate.compile(linePatterns[i], extraFields);
+        }
+        return new AddressLayout(lines, false);
+    }
+
+    /**
+     * Same layout with lines in upper case.
+     */
+    public AddressLayout upperCase() {
+        return new AddressLayout(lines, true);
+    }
+
+    public String[] render(UavPostalValidationResult uavPostalValidationResult) {
+        String[] rendered = new String[lines.length];
+        int count = 0;
+        for (AddressTemplate line : lines) {
+            String value = line.render(uavPostalValidationResult);
+            if (!value.isEmpty()) {
+                rendered[count++] = upperCase ? value.toUpperCase(Locale.ROOT) : value;
+            }
+        }
+        return count == rendered.length ? rendered : Arrays.copyOf(rendered, count);
+    }
+}
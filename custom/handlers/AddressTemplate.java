@@ -0,0 +1,211 @@
+package net.intermedia.uav.postal.custom.handlers;
+
+import net.intermedia.uav.postal.TextNormalizer;
+import net.intermedia.uav.postal.UavPostalValidationResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Layout of one address line compiled once into a renderer, e.g.
+ * <pre>
+ *     [PO Box {postBox}] {houseNumber} {preDir} {streetName} {suffix} {postDir} {unitType} {unitNumber}
+ * </pre>
+ * <code>{field}</code> is replaced with a field of the result, a <code>null</code> or blank field renders as nothing.
+ * Text in <code>[...]</code> is rendered only if all fields inside are not blank. Whitespace of the rendered line is
+ * normalized the same way as {@link TextNormalizer#normalize(String)}.
+ */
+public final class AddressTemplate {
+
+    private static final Map<String, Function<UavPostalValidationResult, String>> FIELDS = new HashMap<>();
+
+    static {
+        FIELDS.put("houseNumber", UavPostalValidationResult::getHouseNumber);
+        FIELDS.put("preDir", UavPostalValidationResult::getPreDir);
+        FIELDS.put("streetName", UavPostalValidationResult::getStreetName);
+        FIELDS.put("suffix", UavPostalValidationResult::getSuffix);
+        FIELDS.put("postDir", UavPostalValidationResult::getPostDir);
+        FIELDS.put("unitType", UavPostalValidationResult::getUnitType);
+        FIELDS.put("unitNumber", UavPostalValidationResult::getUnitNumber);
+        FIELDS.put("postBox", UavPostalValidationResult::getPostBox);
+        FIELDS.put("pmbPrefix", UavPostalValidationResult::getPmbPrefix);
+        FIELDS.put("pmbNumber", UavPostalValidationResult::getPmbNumber);
+        FIELDS.put("addressLine1", UavPostalValidationResult::getAddressLine1);
+        FIELDS.put("addressLine2", UavPostalValidationResult::getAddressLine2);
+        FIELDS.put("addressLine3", UavPostalValidationResult::getAddressLine3);
+        FIELDS.put("city", UavPostalValidationResult::getCity);
+        FIELDS.put("state", UavPostalValidationResult::getState);
+        FIELDS.put("zip", UavPostalValidationResult::getZip);
+    }
+
+    private final String pattern;
+    private final Part[] parts;
+
+    private AddressTemplate(String pattern, Part[] parts) {
+        this.pattern = pattern;
+        this.parts = parts;
+    }
+
+    public static AddressTemplate compile(String pattern) {
+        return compile(pattern, Collections.emptyMap());
+    }
+
+    /**
+     * @param extraFields fields computed by a handler, e.g. a state code resolved for the country of the handler
+     */
+    public static AddressTemplate compile(String pattern, Map<String, Function<UavPostalValidationResult, String>> extraFields) {
+        List<Part> parts = new ArrayList<>();
+        List<Part> group = null;
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            List<Part> target = group != null ? group : parts;
+            if (c == '{') {
+                int end = pattern.indexOf('}', i);
+                if (end < 0) {
+                    throw new IllegalStateException("Unterminated field in address template: " + pattern);
+                }
+                String name = pattern.substring(i + 1, end);
+                Function<UavPostalValidationResult, String> field = extraFields.containsKey(name) ? extraFields.get(name) : FIELDS.get(name);
+                if (field == null) {
+                    throw new IllegalStateException("Unknown field '" + name + "' in address template: " + pattern);
+                }
+                addLiteral(target, literal);
+                target.add(Part.field(field));
+                i = end;
+            } else if (c == '[') {
+                if (group != null) {
+                    throw new IllegalStateException("Nested optional text in address template: " + pattern);
+                }
+                addLiteral(parts, literal);
+                group = new ArrayList<>();
+            } else if (c == ']') {
+                if (group == null) {
+                    throw new IllegalStateException("Unbalanced ']' in address template: " + pattern);
+                }
+                addLiteral(group, literal);
+                parts.add(Part.group(group.toArray(new Part[0])));
+                group = null;
+            } else {
+                literal.append(c);
+            }
+        }
+        if (group != null) {
+            throw new IllegalStateException("Unterminated optional text in address template: " + pattern);
+        }
+        addLiteral(parts, literal);
+        return new AddressTemplate(pattern, parts.toArray(new Part[0]));
+    }
+
+    private static void addLiteral(List<Part> parts, StringBuilder literal) {
+        if (literal.length() > 0) {
+            parts.add(Part.literal(literal.toString()));
+            literal.setLength(0);
+        }
+    }
+
+    public String render(UavPostalValidationResult uavPostalValidationResult) {
+        StringBuilder line = new StringBuilder(64);
+        render(parts, new Output(line), uavPostalValidationResult);
+        return line.toString();
+    }
+
+    private static void render(Part[] parts, Output output, UavPostalValidationResult uavPostalValidationResult) {
+        for (Part part : parts) {
+            if (part.literal != null) {
+                output.append(part.literal);
+            } else if (part.field != null) {
+                output.append(part.field.apply(uavPostalValidationResult));
+            } else if (isComplete(part.group, uavPostalValidationResult)) {
+                render(part.group, output, uavPostalValidationResult);
+            }
+        }
+    }
+
+    private static boolean isComplete(Part[] group, UavPostalValidationResult uavPostalValidationResult) {
+        for (Part part : group) {
+            if (part.field != null && isBlank(part.field.apply(uavPostalValidationResult))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(String value) {
+        if (value == null) {
+            return true;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!TextNormalizer.isWhitespace(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private static class Part {
+        private final String literal;
+        private final Function<UavPostalValidationResult, String> field;
+        private final Part[] group;
+
+        private Part(String literal, Function<UavPostalValidationResult, String> field, Part[] group) {
+            this.literal = literal;
+            this.field = field;
+            this.group = group;
+        }
+
+        static Part literal(String literal) {
+            return new Part(literal, null, null);
+        }
+
+        static Part field(Function<UavPostalValidationResult, String> field) {
+            return new Part(null, field, null);
+        }
+
+        static Part group(Part[] group) {
+            return new Part(null, null, group);
+        }
+    }
+
+    /**
+     * Appends text dropping leading and trailing whitespace, replacing a single tab with a space and a run of
+     * whitespace with one space.
+     */
+    private static class Output {
+        private final StringBuilder line;
+        private int pendingWhitespace;
+        private char pendingChar;
+
+        private Output(StringBuilder line) {
+            this.line = line;
+        }
+
+        void append(String text) {
+            if (text == null) {
+                return;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (TextNormalizer.isWhitespace(c)) {
+                    pendingWhitespace++;
+                    pendingChar = c;
+                } else {
+                    if (pendingWhitespace > 0 && line.length() > 0) {
+                        line.append(pendingWhitespace == 1 && pendingChar != '\t' ? pendingChar : ' ');
+                    }
+                    pendingWhitespace = 0;
+                    line.append(c);
+                }
+            }
+        }
+    }
+}
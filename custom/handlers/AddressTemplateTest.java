@@ -0,0 +1,130 @@
+package net.intermedia.uav.postal.custom.handlers;
+
+import net.intermedia.uav.postal.UavPostalValidationResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Templates render the same lines as the <code>String.join</code> / <code>String.format</code> code the handlers used
+ * before, apart from the documented changes: a field containing "null" is kept and a blank PO box is left out.
+ */
+class AddressTemplateTest {
+
+    private static final long SEED = 20_240_611L;
+
+    private static final String[] FIELD_VALUES = {null, "", " ", "\t", "A", "12B", "Main  St", "\tN\t", "Rue de\nla Paix", "  Ave "};
+    private static final String[] POST_BOXES = {null, "", "123", "12 34", "\t7", "PO  9"};
+    // full address lines were already normalized by the line templates
+    private static final String[] LINE_VALUES = {null, "", "A", "1 Main St", "PO Box 7"};
+    private static final String[] JOINED_VALUES = {"10117", "Berlin", "SW1A 1AA", "Den Haag"};
+
+    private static final AddressTemplate CA_LINE_1 = AddressTemplate.compile(
+            "[PO Box {postBox}] {houseNumber} {preDir} {streetName} {suffix} {postDir} {unitType} {unitNumber}");
+    private static final AddressTemplate INTERNATIONAL_LINE_1 = AddressTemplate.compile("{streetName} {houseNumber} {unitNumber}");
+    private static final AddressTemplate PO_BOX_LINE = AddressTemplate.compile("[PO Box {postBox}]");
+    private static final AddressLayout DE_FULL_ADDRESS = AddressLayout.compile(
+            "{addressLine1}", "{addressLine2}", "{addressLine3}", "{zip} {city}");
+
+    @Test
+    void streetLineIsSameAsJoinedFields() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < 20_000; i++) {
+            UavPostalValidationResult result = randomResult(random);
+            String poBoxPart = isEmpty(result.getPostBox()) ? "" : normalize("PO Box " + result.getPostBox()) + " ";
+            String expected = (poBoxPart + normalize(String.join(" ", result.getHouseNumber(), result.getPreDir(),
+                    result.getStreetName(), result.getSuffix(), result.getPostDir(), result.getUnitType(), result.getUnitNumber())
+                    .replace("null", ""))).trim();
+            assertEquals(expected, CA_LINE_1.render(result), () -> "fields of " + result);
+        }
+    }
+
+    @Test
+    void internationalStreetLineIsSameAsFormattedFields() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < 20_000; i++) {
+            UavPostalValidationResult result = randomResult(random);
+            String expected = normalize(String.format("%s %s %s", result.getStreetName(), result.getHouseNumber(), result.getUnitNumber())
+                    .replace("null", ""));
+            assertEquals(expected, INTERNATIONAL_LINE_1.render(result), () -> "fields of " + result);
+        }
+    }
+
+    @Test
+    void poBoxLineIsRenderedOnlyWithPoBox() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < 1_000; i++) {
+            UavPostalValidationResult result = randomResult(random);
+            String expected = isEmpty(result.getPostBox()) ? "" : normalize("PO Box " + result.getPostBox());
+            assertEquals(expected, PO_BOX_LINE.render(result), () -> "PO box " + result.getPostBox());
+        }
+    }
+
+    @Test
+    void fullAddressIsSameAsFilteredLines() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < 5_000; i++) {
+            UavPostalValidationResult result = new UavPostalValidationResult();
+            result.setAddressLine1(pick(random, LINE_VALUES));
+            result.setAddressLine2(pick(random, LINE_VALUES));
+            result.setAddressLine3(pick(random, LINE_VALUES));
+            result.setZip(pick(random, JOINED_VALUES));
+            result.setCity(pick(random, JOINED_VALUES));
+            String[] expected = Stream.of(result.getAddressLine1(), result.getAddressLine2(), result.getAddressLine3(),
+                    String.join(" ", result.getZip(), result.getCity()))
+                    .filter(line -> !isEmpty(line))
+                    .toArray(String[]::new);
+            assertArrayEquals(expected, DE_FULL_ADDRESS.render(result), () -> "lines of " + result);
+        }
+    }
+
+    @Test
+    void fieldContainingNullIsKept() {
+        UavPostalValidationResult result = new UavPostalValidationResult();
+        result.setStreetName("Annullata");
+        result.setHouseNumber("5");
+        assertEquals("Annullata 5", INTERNATIONAL_LINE_1.render(result));
+    }
+
+    @Test
+    void invalidTemplatesAreRejected() {
+        assertThrows(IllegalStateException.class, () -> AddressTemplate.compile("{houseNumber"));
+        assertThrows(IllegalStateException.class, () -> AddressTemplate.compile("{unknown}"));
+        assertThrows(IllegalStateException.class, () -> AddressTemplate.compile("[[{postBox}]]"));
+        assertThrows(IllegalStateException.class, () -> AddressTemplate.compile("{postBox}]"));
+        assertThrows(IllegalStateException.class, () -> AddressTemplate.compile("[{postBox}"));
+    }
+
+    private static UavPostalValidationResult randomResult(Random random) {
+        UavPostalValidationResult result = new UavPostalValidationResult();
+        result.setHouseNumber(pick(random, FIELD_VALUES));
+        result.setPreDir(pick(random, FIELD_VALUES));
+        result.setStreetName(pick(random, FIELD_VALUES));
+        result.setSuffix(pick(random, FIELD_VALUES));
+        result.setPostDir(pick(random, FIELD_VALUES));
+        result.setUnitType(pick(random, FIELD_VALUES));
+        result.setUnitNumber(pick(random, FIELD_VALUES));
+        result.setPostBox(pick(random, POST_BOXES));
+        return result;
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    /**
+     * Normalization of the handlers before templates.
+     */
+    private static String normalize(String value) {
+        return value.replaceAll("\\t", " ").replaceAll("\\s{2,}", " ").trim();
+    }
+}
@@ -1,8 +1,20 @@
 package net.intermedia.uav.postal.custom.handlers;
 
+import net.intermedia.uav.country.Country;
 import net.intermedia.uav.postal.UavPostalValidationResult;
 
+import java.util.Set;
+
+/**
+ * Formats custom addresses of some countries. Handlers are stateless singletons shared by all requests, they are
+ * registered in {@link CustomAddressHandlerFactory} as Spring beans or through {@link java.util.ServiceLoader}.
+ */
 public interface CustomAddressHandler {
+    /**
+     * Countries whose custom addresses are handled by this handler.
+     */
+    Set<Country> getCountries();
+
     void fillAddressLine1InUavPostalValidationResult(UavPostalValidationResult uavPostalValidationResult);
     void fillAddressLine2InUavPostalValidationResult(UavPostalValidationResult uavPostalValidationResult);
     void checkAddressLines1and2(UavPostalValidationResult uavPostalValidationResult);
@@ -1,5 +1,8 @@
 package net.intermedia.uav.postal.custom.handlers;
 
+import net.intermedia.uav.country.Country;
+
 public interface CustomAddressHandlerFactory {
     CustomAddressHandler getHandler(String countryFromRequest);
+    CustomAddressHandler getHandler(Country country);
 }
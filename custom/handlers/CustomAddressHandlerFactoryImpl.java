@@ -1,51 +1,68 @@
 package net.intermedia.uav.postal.custom.handlers;
 
+import lombok.extern.log4j.Log4j2;
 import net.intermedia.uav.country.Country;
-import net.intermedia.uav.postal.custom.handlers.international.AUCustomAddressHandler;
-import net.intermedia.uav.postal.custom.handlers.international.DECustomAddressHandler;
-import net.intermedia.uav.postal.custom.handlers.international.ITCustomAddressHandler;
-import net.intermedia.uav.postal.custom.handlers.international.JPCustomAddressHandler;
-import net.intermedia.uav.postal.custom.handlers.international.NLCustomAddressHandler;
-import net.intermedia.uav.postal.custom.handlers.international.UKCustomAddressHandler;
-import net.intermedia.uav.postal.custom.handlers.us.CaCustomAddressHandler;
-import net.intermedia.uav.postal.custom.handlers.us.UsCustomAddressHandler;
+import net.intermedia.uav.postal.CountryResolver;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Registry of custom address handlers built once at startup. Handlers are the {@link CustomAddressHandler} beans of
+ * the context and the ones listed in <code>META-INF/services</code>, so a new country is supported by adding a handler
+ * without touching the registry. A country handled by two handlers fails the startup.
+ */
+@Log4j2
 @Service
 public class CustomAddressHandlerFactoryImpl implements CustomAddressHandlerFactory {
 
+    private final Map<Country, CustomAddressHandler> handlers = new EnumMap<>(Country.class);
+
+    @Autowired
+    public CustomAddressHandlerFactoryImpl(List<CustomAddressHandler> handlerBeans) {
+        Set<Class<?>> registeredClasses = new HashSet<>();
+        for (CustomAddressHandler handler : handlerBeans) {
+            register(handler);
+            registeredClasses.add(handler.getClass());
+        }
+        for (CustomAddressHandler handler : ServiceLoader.load(CustomAddressHandler.class)) {
+            if (registeredClasses.add(handler.getClass())) {
+                register(handler);
+            }
+        }
+        log.info("Custom address handlers are registered for " + handlers.keySet());
+    }
+
+    private void register(CustomAddressHandler handler) {
+        for (Country country : handler.getCountries()) {
+            CustomAddressHandler registered = handlers.putIfAbsent(country, handler);
+            if (registered != null) {
+                throw new IllegalStateException("Country " + country + " is handled by both " + registered.getClass().getName()
+                        + " and " + handler.getClass().getName());
+            }
+        }
+    }
+
+    @Override
+    public CustomAddressHandler getHandler(String countryFromRequest) {
+        CustomAddressHandler handler = handlers.get(CountryResolver.findCountry(countryFromRequest));
+        if (handler == null) {
+            throw new IllegalStateException("Unexpected country for CustomAddressHandler: " + countryFromRequest);
+        }
+        return handler;
+    }
+
     @Override
-    public CustomAddressHandler getHandler(String countryFromRequest){
-        Country country = Country.find(countryFromRequest);
-        CustomAddressHandler handler;
-        switch (country) {
-            case US:
-            case PR:
-                handler = new UsCustomAddressHandler(){};
-                break;
-            case CA:
-                handler = new CaCustomAddressHandler();
-                break;
-            case UK:
-                handler = new UKCustomAddressHandler();
-                break;
-            case NL:
-                handler = new NLCustomAddressHandler();
-                break;
-            case DE:
-                handler = new DECustomAddressHandler();
-                break;
-            case IT:
-                handler = new ITCustomAddressHandler();
-                break;
-            case AU:
-                handler = new AUCustomAddressHandler();
-                break;
-            case JP:
-                handler = new JPCustomAddressHandler();
-                break;
-            default:
-                throw new IllegalStateException("Unexpected country for CustomAddressHandler: " + countryFromRequest);
+    public CustomAddressHandler getHandler(Country country) {
+        CustomAddressHandler handler = handlers.get(country);
+        if (handler == null) {
+            throw new IllegalStateException("Unexpected country for CustomAddressHandler: " + country);
         }
         return handler;
     }
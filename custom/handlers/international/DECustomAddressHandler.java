@@ -1,26 +1,34 @@
 package net.intermedia.uav.postal.custom.handlers.international;
 
+import net.intermedia.uav.country.Country;
 import net.intermedia.uav.postal.UavPostalValidationResult;
-import org.springframework.util.StringUtils;
+import net.intermedia.uav.postal.custom.handlers.AddressLayout;
+import net.intermedia.uav.postal.custom.handlers.AddressTemplate;
+import org.springframework.stereotype.Component;
 
-import java.util.stream.Stream;
+import java.util.EnumSet;
+import java.util.Set;
 
+@Component
 public class DECustomAddressHandler extends InternationalAbstractCustomAddressHandler {
 
+    private static final AddressTemplate ADDRESS_LINE_2 = AddressTemplate.compile("[Postfach {postBox}]");
+
+    private static final AddressLayout FULL_ADDRESS = AddressLayout.compile(
+            "{addressLine1}", "{addressLine2}", "{addressLine3}", "{zip} {city}");
+
+    @Override
+    public Set<Country> getCountries() {
+        return EnumSet.of(Country.DE);
+    }
+
     @Override
     public String generateAddressLine2(UavPostalValidationResult uavPostalValidationResult) {
-        String addressLine2 = "";
-        if (!StringUtils.isEmpty(uavPostalValidationResult.getPostBox())) {
-            addressLine2 = normalize("Postfach " + uavPostalValidationResult.getPostBox());
-        }
-        return addressLine2;
+        return ADDRESS_LINE_2.render(uavPostalValidationResult);
     }
 
     @Override
     public String[] generateFullAddress(UavPostalValidationResult uavPostalValidationResult) {
-        return Stream.of(uavPostalValidationResult.getAddressLine1(), uavPostalValidationResult.getAddressLine2(), uavPostalValidationResult.getAddressLine3(),
-                String.join(" ", uavPostalValidationResult.getZip(), uavPostalValidationResult.getCity()))
-                .filter(add -> !StringUtils.isEmpty(add))
-                .toArray(String[]::new);
+        return FULL_ADDRESS.render(uavPostalValidationResult);
     }
 }
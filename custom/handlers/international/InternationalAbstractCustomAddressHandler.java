@@ -2,15 +2,15 @@ package net.intermedia.uav.postal.custom.handlers.international;
 
 import net.intermedia.uav.postal.UavPostalValidationResult;
 import net.intermedia.uav.postal.custom.handlers.AbstractCustomAddressHandler;
+import net.intermedia.uav.postal.custom.handlers.AddressTemplate;
 
 public abstract class InternationalAbstractCustomAddressHandler extends AbstractCustomAddressHandler {
 
+    protected static final AddressTemplate STREET_LINE = AddressTemplate.compile("{streetName} {houseNumber} {unitNumber}");
+
     @Override
     public String generateAddressLine1(UavPostalValidationResult uavPostalValidationResult) {
-        return normalize(String.format("%s %s %s", uavPostalValidationResult.getStreetName(),
-                uavPostalValidationResult.getHouseNumber(),
-                uavPostalValidationResult.getUnitNumber())
-                .replace("null", ""));
+        return STREET_LINE.render(uavPostalValidationResult);
     }
 
 
@@ -3,13 +3,28 @@ package net.intermedia.uav.postal.custom.handlers.international;
 import net.intermedia.uav.country.Country;
 import net.intermedia.uav.country.CountryState;
 import net.intermedia.uav.pojo.postal.PostalValidationOutputLanguage;
+import net.intermedia.uav.postal.CountryResolver;
 import net.intermedia.uav.postal.UavPostalValidationResult;
+import net.intermedia.uav.postal.custom.handlers.AddressLayout;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
 
-import java.util.stream.Stream;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
+@Component
 public class JPCustomAddressHandler extends InternationalAbstractCustomAddressHandler {
 
+    private static final AddressLayout FULL_ADDRESS = AddressLayout.compile(
+            Collections.singletonMap("stateShortName", JPCustomAddressHandler::stateShortName),
+            "{addressLine1}", "{addressLine2}", "{addressLine3}", "{city} {stateShortName} {zip}");
+
+    @Override
+    public Set<Country> getCountries() {
+        return EnumSet.of(Country.JP);
+    }
+
     @Override
     public String generateAddressLine1(UavPostalValidationResult uavPostalValidationResult) {
         return uavPostalValidationResult.getAddressLine1();
@@ -32,27 +47,18 @@ public class JPCustomAddressHandler extends InternationalAbstractCustomAddressHa
 
     @Override
     public String[] generateFullAddress(UavPostalValidationResult uavPostalValidationResult) {
-        String state = uavPostalValidationResult.getState();
-        if (StringUtils.isNumeric(state)) {
-            state = "JP-" + state;
-        }
-        CountryState countryState = CountryState.find(Country.JP, state);
-        return Stream.of(uavPostalValidationResult.getAddressLine1(), uavPostalValidationResult.getAddressLine2(), uavPostalValidationResult.getAddressLine3(),
-                String.join(" ", uavPostalValidationResult.getCity(),
-                        (countryState.isFound() ? countryState.getShortName() : uavPostalValidationResult.getState()),
-                        uavPostalValidationResult.getZip()).trim())
-                .filter(add -> !StringUtils.isEmpty(add))
-                .toArray(String[]::new);
+        return FULL_ADDRESS.render(uavPostalValidationResult);
+    }
+
+    private static String stateShortName(UavPostalValidationResult uavPostalValidationResult) {
+        CountryState countryState = findPrefecture(uavPostalValidationResult.getState());
+        return countryState.isFound() ? countryState.getShortName() : uavPostalValidationResult.getState();
     }
 
     @Override
     public void fillStateName(UavPostalValidationResult uavPostalValidationResult) {
         PostalValidationOutputLanguage outputLanguage = uavPostalValidationResult.getPostalValidationOutputLanguage();
-        String state = uavPostalValidationResult.getState();
-        if (StringUtils.isNumeric(state)) {
-            state = "JP-" + state;
-        }
-        CountryState countryState = CountryState.find(uavPostalValidationResult.getCountry(), state);
+        CountryState countryState = findPrefecture(uavPostalValidationResult.getState());
         if (countryState.isFound()) {
             uavPostalValidationResult.setState(countryState.getUavState());
             if (outputLanguage == PostalValidationOutputLanguage.ENGLISH) {
@@ -62,4 +68,11 @@ public class JPCustomAddressHandler extends InternationalAbstractCustomAddressHa
             }
         }
     }
+
+    /**
+     * Prefectures may be given by number, e.g. 13 for JP-13.
+     */
+    private static CountryState findPrefecture(String state) {
+        return CountryResolver.findState(Country.JP, StringUtils.isNumeric(state) ? "JP-" + state : state);
+    }
 }
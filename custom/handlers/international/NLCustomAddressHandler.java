@@ -1,34 +1,39 @@
 package net.intermedia.uav.postal.custom.handlers.international;
 
+import net.intermedia.uav.country.Country;
 import net.intermedia.uav.postal.UavPostalValidationResult;
-import org.springframework.util.StringUtils;
+import net.intermedia.uav.postal.custom.handlers.AddressLayout;
+import net.intermedia.uav.postal.custom.handlers.AddressTemplate;
+import org.springframework.stereotype.Component;
 
-import java.util.stream.Stream;
+import java.util.EnumSet;
+import java.util.Set;
 
+@Component
 public class NLCustomAddressHandler extends InternationalAbstractCustomAddressHandler {
 
+    private static final AddressTemplate ADDRESS_LINE_1 = AddressTemplate.compile("[Postbus {postBox}]");
+
+    private static final AddressLayout FULL_ADDRESS = AddressLayout.compile(
+            "{addressLine1}", "{addressLine2}", "{addressLine3}", "{zip} {city}");
+
+    @Override
+    public Set<Country> getCountries() {
+        return EnumSet.of(Country.NL);
+    }
+
     @Override
     public String generateAddressLine1(UavPostalValidationResult uavPostalValidationResult) {
-        String addressLine1 = "";
-        if (!StringUtils.isEmpty(uavPostalValidationResult.getPostBox())) {
-            addressLine1 = normalize("Postbus " + uavPostalValidationResult.getPostBox());
-        }
-        return addressLine1;
+        return ADDRESS_LINE_1.render(uavPostalValidationResult);
     }
 
     @Override
     public String generateAddressLine2(UavPostalValidationResult uavPostalValidationResult) {
-        return normalize(String.format("%s %s %s", uavPostalValidationResult.getStreetName(),
-                uavPostalValidationResult.getHouseNumber(),
-                uavPostalValidationResult.getUnitNumber())
-                .replace("null", ""));
+        return STREET_LINE.render(uavPostalValidationResult);
     }
 
     @Override
     public String[] generateFullAddress(UavPostalValidationResult uavPostalValidationResult) {
-        return Stream.of(uavPostalValidationResult.getAddressLine1(), uavPostalValidationResult.getAddressLine2(), uavPostalValidationResult.getAddressLine3(),
-                String.join(" ", uavPostalValidationResult.getZip(), uavPostalValidationResult.getCity()))
-                .filter(add -> !StringUtils.isEmpty(add))
-                .toArray(String[]::new);
+        return FULL_ADDRESS.render(uavPostalValidationResult);
     }
 }
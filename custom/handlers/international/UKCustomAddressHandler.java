@@ -1,34 +1,41 @@
 package net.intermedia.uav.postal.custom.handlers.international;
 
+import net.intermedia.uav.country.Country;
 import net.intermedia.uav.postal.UavPostalValidationResult;
-import org.springframework.util.StringUtils;
+import net.intermedia.uav.postal.custom.handlers.AddressLayout;
+import net.intermedia.uav.postal.custom.handlers.AddressTemplate;
+import org.springframework.stereotype.Component;
 
-import java.util.stream.Stream;
+import java.util.EnumSet;
+import java.util.Set;
 
+@Component
 public class UKCustomAddressHandler extends InternationalAbstractCustomAddressHandler {
 
+    private static final AddressTemplate ADDRESS_LINE_1 = AddressTemplate.compile("{unitNumber} {houseNumber} {streetName}");
+
+    private static final AddressTemplate ADDRESS_LINE_2 = AddressTemplate.compile("[PO Box {postBox}]");
+
+    private static final AddressLayout FULL_ADDRESS = AddressLayout.compile(
+            "{addressLine1}", "{addressLine2}", "{addressLine3}", "{city}", "{zip}");
+
+    @Override
+    public Set<Country> getCountries() {
+        return EnumSet.of(Country.UK);
+    }
+
     @Override
     public String generateAddressLine1(UavPostalValidationResult uavPostalValidationResult) {
-        return normalize(String.format("%s %s %s", uavPostalValidationResult.getUnitNumber(),
-                uavPostalValidationResult.getHouseNumber(),
-                uavPostalValidationResult.getStreetName())
-                .replace("null", ""));
+        return ADDRESS_LINE_1.render(uavPostalValidationResult);
     }
 
     @Override
     public String generateAddressLine2(UavPostalValidationResult uavPostalValidationResult) {
-        String addressLine2 = "";
-        if (!StringUtils.isEmpty(uavPostalValidationResult.getPostBox())) {
-            addressLine2 = normalize("PO Box " + uavPostalValidationResult.getPostBox());
-        }
-        return addressLine2;
+        return ADDRESS_LINE_2.render(uavPostalValidationResult);
     }
 
     @Override
     public String[] generateFullAddress(UavPostalValidationResult uavPostalValidationResult) {
-        return Stream.of(uavPostalValidationResult.getAddressLine1(), uavPostalValidationResult.getAddressLine2(), uavPostalValidationResult.getAddressLine3(),
-                uavPostalValidationResult.getCity(), uavPostalValidationResult.getZip())
-                .filter(add -> !StringUtils.isEmpty(add))
-                .toArray(String[]::new);
+        return FULL_ADDRESS.render(uavPostalValidationResult);
     }
 }
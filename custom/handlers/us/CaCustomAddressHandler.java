@@ -3,14 +3,31 @@ package net.intermedia.uav.postal.custom.handlers.us;
 import net.intermedia.uav.country.Country;
 import net.intermedia.uav.postal.UavPostalValidationResult;
 import net.intermedia.uav.postal.custom.handlers.AbstractCustomAddressHandler;
-import org.apache.commons.lang3.StringUtils;
+import net.intermedia.uav.postal.custom.handlers.AddressLayout;
+import net.intermedia.uav.postal.custom.handlers.AddressTemplate;
+import org.springframework.stereotype.Component;
 
-import java.util.stream.Stream;
+import java.util.EnumSet;
+import java.util.Set;
 
+@Component
 public class CaCustomAddressHandler extends AbstractCustomAddressHandler {
+
+    protected static final String STREET_LINE = "{houseNumber} {preDir} {streetName} {suffix} {postDir} {unitType} {unitNumber}";
+
+    private static final AddressTemplate ADDRESS_LINE_1 = AddressTemplate.compile("[PO Box {postBox}] " + STREET_LINE);
+
+    private static final AddressLayout FULL_ADDRESS = AddressLayout.compile(stateCodeField(Country.CA),
+            "{addressLine1}", "{addressLine2}", "{addressLine3}", "[{city},] {stateCode} {zip}").upperCase();
+
+    @Override
+    public Set<Country> getCountries() {
+        return EnumSet.of(Country.CA);
+    }
+
     @Override
     public String generateAddressLine1(UavPostalValidationResult uavPostalValidationResult) {
-        return (generatePoBoxPart(uavPostalValidationResult) + generateNormalizedAddressLine1(uavPostalValidationResult)).trim();
+        return ADDRESS_LINE_1.render(uavPostalValidationResult);
     }
 
     @Override
@@ -20,36 +37,6 @@ public class CaCustomAddressHandler extends AbstractCustomAddressHandler {
 
     @Override
     public String[] generateFullAddress(UavPostalValidationResult uavPostalValidationResult) {
-        return Stream.of(
-                uavPostalValidationResult.getAddressLine1(), uavPostalValidationResult.getAddressLine2(),
-                uavPostalValidationResult.getAddressLine3(),
-                uavPostalValidationResult.getCity() + ", " + getStateCodeOrDefault(Country.CA.getAlpha2Code(), uavPostalValidationResult.getState())
-                        + " " + uavPostalValidationResult.getZip())
-                .filter(add -> !StringUtils.isEmpty(add))
-                .map(String::toUpperCase)
-                .toArray(String[]::new);
+        return FULL_ADDRESS.render(uavPostalValidationResult);
     }
-
-
-    protected String generatePoBoxPart(UavPostalValidationResult uavPostalValidationResult) {
-        String poBoxPart = "";
-        if (!StringUtils.isEmpty(uavPostalValidationResult.getPostBox())) {
-            poBoxPart = normalize("PO Box " + uavPostalValidationResult.getPostBox()) + " ";
-        }
-        return poBoxPart;
-    }
-    protected String generateNormalizedAddressLine1(UavPostalValidationResult uavPostalValidationResult) {
-        return normalize(String.join(" ",
-                uavPostalValidationResult.getHouseNumber(),
-                uavPostalValidationResult.getPreDir(),
-                uavPostalValidationResult.getStreetName(),
-                uavPostalValidationResult.getSuffix(),
-                uavPostalValidationResult.getPostDir(),
-                uavPostalValidationResult.getUnitType(),
-                uavPostalValidationResult.getUnitNumber())
-                .replace("null", ""));
-    }
-
-
-
 }
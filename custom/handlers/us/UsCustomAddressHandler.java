@@ -2,22 +2,34 @@ package net.intermedia.uav.postal.custom.handlers.us;
 
 import net.intermedia.uav.country.Country;
 import net.intermedia.uav.postal.UavPostalValidationResult;
+import net.intermedia.uav.postal.custom.handlers.AddressLayout;
+import net.intermedia.uav.postal.custom.handlers.AddressTemplate;
 import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
 
-import java.util.stream.Stream;
+import java.util.EnumSet;
+import java.util.Set;
 
+@Component
 public class UsCustomAddressHandler extends CaCustomAddressHandler {
+
+    private static final AddressTemplate ADDRESS_LINE_1_WITH_PMB = AddressTemplate.compile(STREET_LINE + " [{pmbPrefix} {pmbNumber}]");
+
+    private static final AddressLayout FULL_ADDRESS = AddressLayout.compile(stateCodeField(Country.US),
+            "{addressLine1}", "{addressLine2}", "{addressLine3}", "[{city},] {stateCode} {zip}");
+
+    @Override
+    public Set<Country> getCountries() {
+        return EnumSet.of(Country.US, Country.PR);
+    }
+
     @Override
     public String generateAddressLine1(UavPostalValidationResult uavPostalValidationResult) {
-        String poBoxPart = generatePoBoxPart(uavPostalValidationResult);
-        String normalizedAddressLine1 = generateNormalizedAddressLine1(uavPostalValidationResult);
-        String pmbBoxPart = generatePmbPart(uavPostalValidationResult);
-        if (!StringUtils.isEmpty(pmbBoxPart)) {
-            return (normalizedAddressLine1 + pmbBoxPart).trim();
-        } else {
-            return (poBoxPart + normalizedAddressLine1).trim();
+        if ("pmb".equalsIgnoreCase(uavPostalValidationResult.getPmbPrefix())) {
+            return ADDRESS_LINE_1_WITH_PMB.render(uavPostalValidationResult);
         }
+        return super.generateAddressLine1(uavPostalValidationResult);
     }
 
     @Override
@@ -41,22 +53,8 @@ public class UsCustomAddressHandler extends CaCustomAddressHandler {
         }
     }
 
-
-    protected String generatePmbPart(UavPostalValidationResult uavPostalValidationResult) {
-        String pmbBoxPart = "";
-        if ("pmb".equalsIgnoreCase(uavPostalValidationResult.getPmbPrefix())) {
-            pmbBoxPart = " " + normalize(uavPostalValidationResult.getPmbPrefix() + " " + uavPostalValidationResult.getPmbNumber());
-        }
-        return pmbBoxPart;
-    }
-
     @Override
     public String[] generateFullAddress(UavPostalValidationResult uavPostalValidationResult) {
-        return Stream.of(uavPostalValidationResult.getAddressLine1(), uavPostalValidationResult.getAddressLine2(), uavPostalValidationResult.getAddressLine3(),
-                uavPostalValidationResult.getCity() + ", " +
-                        getStateCodeOrDefault(Country.US.getAlpha2Code(), uavPostalValidationResult.getState()) + " " +
-                        uavPostalValidationResult.getZip())
-                .filter(add -> !StringUtils.isEmpty(add))
-                .toArray(String[]::new);
+        return FULL_ADDRESS.render(uavPostalValidationResult);
     }
 }